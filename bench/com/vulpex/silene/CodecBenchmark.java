@@ -0,0 +1,91 @@
+package com.vulpex.silene;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of tutor search and lecture list bodies, at payload
+ * sizes from a handful of entries to a whole city.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"10", "1000", "100000"})
+    int size;
+    private List<Tutor> tutors;
+    private List<Lecture> lectures;
+    private byte[] tutorsBody;
+    private byte[] lecturesBody;
+
+    @Setup
+    public void setUp() {
+        tutors = StubBackend.tutors(size);
+        lectures = StubBackend.lectures(size);
+        tutorsBody = StubBackend.tutorsJson(tutors).getBytes(StandardCharsets.UTF_8);
+        lecturesBody = JsonCodec.GSON.toJson(lectures).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonReader reader(byte[] body) {
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public List<Tutor> decodeTutors() throws IOException {
+        return JsonCodec.TUTORS.decode(reader(tutorsBody));
+    }
+
+    /**
+     * Decode tutors into a map tree, as the library did before the streaming
+     * decoders, for comparison.
+     */
+    @Benchmark
+    public HashMap<?, ?> decodeTutorsAsMap() {
+        return new Gson().fromJson(new String(tutorsBody, StandardCharsets.UTF_8), HashMap.class);
+    }
+
+    @Benchmark
+    public List<Lecture> decodeLectures() throws IOException {
+        return JsonCodec.LECTURES.decode(reader(lecturesBody));
+    }
+
+    /**
+     * Decode lectures into the columns of a table, as the library stores them.
+     */
+    @Benchmark
+    public LectureTable decodeLectureTable() throws IOException {
+        return JsonCodec.LECTURE_TABLE.decode(reader(lecturesBody));
+    }
+
+    @Benchmark
+    public String encodeTutors() {
+        return JsonCodec.GSON.toJson(tutors);
+    }
+
+    @Benchmark
+    public String encodeLectures() {
+        return JsonCodec.GSON.toJson(lectures);
+    }
+}
@@ -0,0 +1,104 @@
+package com.vulpex.silene;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full calls through the client against a local {@link StubBackend}, at
+ * several concurrency levels, so transport and decoding costs are measured
+ * together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({"10", "1000", "10000"})
+    int size;
+    private StubBackend backend;
+    private SileneClient client;
+    private Student student;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        backend = new StubBackend(size, size, Runtime.getRuntime().availableProcessors());
+        client = new SileneClient(backend.getUrl(), "bench");
+        student = (Student) client.loginUser("student", "password");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        backend.close();
+    }
+
+    private List<Tutor> findTutors() throws Exception {
+        return student.searchForTutors("London", "");
+    }
+
+    private List<Lecture> listLectures() throws Exception {
+        return student.getLecturesForUser();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Tutor> findTutors1() throws Exception {
+        return findTutors();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Tutor> findTutors8() throws Exception {
+        return findTutors();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<Tutor> findTutors64() throws Exception {
+        return findTutors();
+    }
+
+    /**
+     * After the first call, lecture lists are revalidated and answered 304.
+     */
+    @Benchmark
+    @Threads(1)
+    public List<Lecture> listLectures1() throws Exception {
+        return listLectures();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Lecture> listLectures8() throws Exception {
+        return listLectures();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public List<Lecture> listLectures64() throws Exception {
+        return listLectures();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public User login8() throws Exception {
+        return client.loginUser("student", "password");
+    }
+}
@@ -0,0 +1,103 @@
+package com.vulpex.silene;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Checks the lecture event stream against a local {@link StubBackend}: that
+ * events are applied and passed to the listeners, that a dropped stream
+ * reconnects and resumes after the last event received, and that the stream
+ * is opened again for the new set of users when users subscribe or
+ * unsubscribe. Exits with a failure on the first check that does not hold.
+ */
+public final class LectureEventsCheck {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private LectureEventsCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (StubBackend backend = new StubBackend(10, 10, 8);
+             SileneClient client = new SileneClient(backend.getUrl(), "check")) {
+            User student = client.loginUser("student", "password");
+            LectureTable before = student.getLectureTable();
+            check(before.get(1).getState() == LectureState.REQUESTED, "lecture 1 is listed as requested");
+
+            BlockingQueue<LectureEvent> studentEvents = new LinkedBlockingQueue<LectureEvent>();
+            int opened = backend.getStreamsOpened();
+            LectureSubscription studentSubscription = student.subscribeLectures(studentEvents::add);
+            awaitAbove(backend::getStreamsOpened, opened, "the stream is opened on the first subscription");
+
+            backend.publish(lecture(1, "tutor1", "student", LectureState.CONFIRMED));
+            expect(studentEvents, "1", 1);
+            check(student.getLectureTable().get(1).getState() == LectureState.CONFIRMED,
+                    "the event is applied to the lectures of the user");
+            check(before.get(1).getState() == LectureState.REQUESTED, "the table handed out earlier is unchanged");
+            System.out.println("ok: events are applied and passed to the listener");
+
+            opened = backend.getStreamsOpened();
+            backend.dropStreams();
+            backend.publish(lecture(2, "tutor2", "student", LectureState.CONFIRMED)); // While disconnected.
+            backend.publish(lecture(4, "tutor4", "student", LectureState.CONFIRMED));
+            expect(studentEvents, "2", 2);
+            expect(studentEvents, "3", 4);
+            check(backend.getStreamsOpened() == opened + 1, "the dropped stream is opened again once");
+            System.out.println("ok: a dropped stream reconnects and resumes after the last event");
+
+            User tutor = client.loginUser("tutor7", "password");
+            BlockingQueue<LectureEvent> tutorEvents = new LinkedBlockingQueue<LectureEvent>();
+            opened = backend.getStreamsOpened();
+            LectureSubscription tutorSubscription = tutor.subscribeLectures(tutorEvents::add);
+            awaitAbove(backend::getStreamsOpened, opened, "the stream is opened again for a new user");
+            backend.publish(lecture(7, "tutor7", "other", LectureState.CONFIRMED));
+            expect(tutorEvents, "4", 7);
+
+            opened = backend.getStreamsOpened();
+            studentSubscription.close();
+            awaitAbove(backend::getStreamsOpened, opened, "the stream is opened again without the user who left");
+            backend.publish(lecture(5, "tutor5", "student", LectureState.CONFIRMED));
+            backend.publish(lecture(17, "tutor7", "other", LectureState.CONFIRMED));
+            expect(tutorEvents, "6", 17); // Sent after the event of the student, so that one was skipped.
+            check(studentEvents.isEmpty(), "a user who unsubscribed gets no events");
+            tutorSubscription.close();
+            System.out.println("ok: the stream follows the users who subscribe and unsubscribe");
+        }
+    }
+
+    private static Lecture lecture(int id, String tutor, String student, LectureState state) {
+        return new Lecture(id, tutor, student, state, Date.valueOf(LocalDate.of(2026, 1, 1).plusDays(id)));
+    }
+
+    /**
+     * Wait for the next event of a listener and check it.
+     * @param events Events received by the listener.
+     * @param eventId Expected id of the event.
+     * @param lectureId Expected lecture of the event.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static void expect(BlockingQueue<LectureEvent> events, String eventId, int lectureId)
+            throws InterruptedException {
+        LectureEvent event = events.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        check(event != null, "event " + eventId + " is received");
+        check(eventId.equals(event.getEventId()) && event.getLecture().getLectureId() == lectureId,
+                "event " + eventId + " is received next, got " + event.getEventId());
+    }
+
+    private static void awaitAbove(IntSupplier value, int floor, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (value.getAsInt() <= floor) {
+            check(System.nanoTime() - deadline < 0, what);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void check(boolean holds, String what) {
+        if (!holds) {
+            throw new IllegalStateException("Check failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.vulpex.silene;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives scripted student and tutor sessions through one client at an
+ * open-loop arrival rate, to find how many concurrent sessions a JVM can
+ * run before latency degrades. Sessions arrive at exponentially distributed
+ * intervals whatever the latency of the earlier ones, and each runs on its
+ * own thread: a virtual thread where the runtime has them, else a pooled one.
+ *
+ * A student logs in, searches for tutors, requests a lecture and lists its
+ * lectures; a tutor logs in, lists its lectures and confirms one. Each
+ * operation is timed on its own, and each session from the time it was
+ * scheduled to arrive, so a client falling behind the arrival rate shows up
+ * in the session latency rather than silently lowering the load.
+ *
+ * Arguments: sessions per second, duration in seconds, share of tutor
+ * sessions, think time between operations in milliseconds, and the URL of
+ * a server to load instead of a local {@link StubBackend}.
+ */
+public final class LoadGenerator {
+    private static final String[] OPERATIONS = {"loginUser", "searchForTutors", "requestLecture",
+            "getLecturesForUser", "confirmLecture", "session"};
+    private final SileneClient client;
+    private final long thinkNanos;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+    private final Map<String, LongAdder> failures = new LinkedHashMap<String, LongAdder>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    /**
+     * An operation of a session, timed by {@link #timed(String, Operation)}.
+     */
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    LoadGenerator(SileneClient client, long thinkNanos) {
+        this.client = client;
+        this.thinkNanos = thinkNanos;
+        for (String operation : OPERATIONS) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Create the executor sessions run on: one virtual thread per session on a
+     * runtime that has them, else a pool growing with the number of sessions.
+     * @return the executor.
+     */
+    static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start sessions at a rate for a while, then wait for the last ones to end.
+     * @param sessionsPerSecond Average arrival rate of sessions.
+     * @param durationNanos How long sessions keep arriving.
+     * @param tutorShare Share of the sessions that are tutor sessions.
+     * @param executor Executor the sessions run on.
+     * @return the number of sessions started.
+     * @throws InterruptedException If interrupted while waiting for the sessions.
+     */
+    int run(double sessionsPerSecond, long durationNanos, double tutorShare, ExecutorService executor)
+            throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        long arrival = start;
+        int sessions = 0;
+        while (arrival - start < durationNanos) {
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long scheduledAt = arrival;
+            int id = sessions++;
+            boolean tutor = random.nextDouble() < tutorShare;
+            executor.execute(() -> session(id, tutor, scheduledAt));
+            arrival += (long) (-Math.log(1 - random.nextDouble()) / sessionsPerSecond * 1e9);
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        return sessions;
+    }
+
+    /**
+     * Run one scripted session.
+     * @param id Number of the session.
+     * @param tutor If this is a tutor session.
+     * @param scheduledAt When the session was scheduled to arrive.
+     */
+    private void session(int id, boolean tutor, long scheduledAt) {
+        int now = active.incrementAndGet();
+        maxActive.accumulateAndGet(now, Math::max);
+        try {
+            if (tutor) {
+                Tutor user = (Tutor) timed("loginUser", () -> client.loginUser("tutor" + id, "password"));
+                think();
+                List<Lecture> lectures = timed("getLecturesForUser", user::getLecturesForUser);
+                think();
+                for (Lecture lecture : lectures) {
+                    if (lecture.getState() == LectureState.REQUESTED) {
+                        timed("confirmLecture", () -> {
+                            user.confirmLecture(lecture);
+                            return null;
+                        });
+                        break;
+                    }
+                }
+            } else {
+                Student user = (Student) timed("loginUser", () -> client.loginUser("student" + id, "password"));
+                think();
+                List<Tutor> tutors = timed("searchForTutors", () -> user.searchForTutors("London", "Maths"));
+                think();
+                Tutor chosen = tutors.get(ThreadLocalRandom.current().nextInt(tutors.size()));
+                Date slot = chosen.nextAvailableSlots(1).get(0);
+                timed("requestLecture", () -> {
+                    user.requestLecture(chosen, slot);
+                    return null;
+                });
+                think();
+                timed("getLecturesForUser", user::getLecturesForUser);
+            }
+            latencies.get("session").record(System.nanoTime() - scheduledAt);
+        } catch (Exception e) {
+            failures.get("session").increment();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private <T> T timed(String operation, Operation<T> body) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T result = body.run();
+            latencies.get(operation).record(System.nanoTime() - start);
+            return result;
+        } catch (Exception e) {
+            failures.get(operation).increment();
+            throw e;
+        }
+    }
+
+    private void think() {
+        if (thinkNanos > 0) {
+            LockSupport.parkNanos(thinkNanos);
+        }
+    }
+
+    /**
+     * Print the throughput and latency percentiles of each operation.
+     * @param elapsedNanos Time the run took.
+     */
+    void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-20s %9s %8s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "failed", "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (String operation : OPERATIONS) {
+            LatencyHistogram latency = latencies.get(operation);
+            System.out.printf("%-20s %9d %8d %9.1f %9.2f %9.2f %9.2f %9.2f%n", operation, latency.getCount(),
+                    failures.get(operation).sum(), latency.getCount() / seconds,
+                    latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(90) / 1e6,
+                    latency.getPercentileNanos(99) / 1e6, latency.getMaxNanos() / 1e6);
+        }
+        System.out.println("Concurrent sessions at most: " + maxActive.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = args.length > 0 ? Double.parseDouble(args[0]) : 200;
+        long duration = TimeUnit.SECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 30);
+        double tutorShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+        long think = TimeUnit.MILLISECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 200);
+        StubBackend backend = args.length > 4 ? null
+                : new StubBackend(1000, 1000, Runtime.getRuntime().availableProcessors() * 4);
+        try (SileneClient client = new SileneClient(backend != null ? backend.getUrl() : args[4], "loadtest")) {
+            ExecutorService executor = sessionExecutor();
+            System.out.printf("%.0f sessions/s for %ds, %.0f%% tutors, %dms think time, on %s%n", rate,
+                    TimeUnit.NANOSECONDS.toSeconds(duration), tutorShare * 100, TimeUnit.NANOSECONDS.toMillis(think),
+                    executor.getClass().getSimpleName());
+            LoadGenerator generator = new LoadGenerator(client, think);
+            long start = System.nanoTime();
+            int sessions = generator.run(rate, duration, tutorShare, executor);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(sessions + " sessions in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+            generator.report(elapsed);
+        } finally {
+            if (backend != null) {
+                backend.close();
+            }
+        }
+    }
+}
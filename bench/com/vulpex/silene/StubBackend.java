@@ -0,0 +1,317 @@
+package com.vulpex.silene;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stub of the ProjectGeorge API, serving generated tutors and
+ * lectures from memory so benchmarks measure the client rather than a
+ * real backend. Users whose username starts with "tutor" are tutors and every
+ * other user is a student, every request is accepted and searches ignore
+ * their filters, returning every tutor. Lecture changes
+ * published with {@link #publish(Lecture)} are pushed to the open lecture
+ * event streams; each open stream holds one of the serving threads.
+ */
+public final class StubBackend implements AutoCloseable {
+    private static final String[] LOCALITIES = {"London", "Leeds", "Bristol", "York", "Bath", "Derby", "Hull", "Ely"};
+    private static final String[] EXPERTISE = {"Maths", "Physics", "Chemistry", "Biology", "History", "Latin"};
+    private static final String[] WEEKDAYS = {"135", "246", "0123456", "15", "24"};
+    private static final String LECTURES_ETAG = "\"v1\"";
+    private static final long KEEP_ALIVE_MILLIS = 15000;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Tutor> tutors;
+    private final byte[] tutorsBody;
+    private final byte[] lecturesBody;
+    private final List<String> events = new ArrayList<String>(); // Guarded by this.
+    private final List<HttpExchange> streams = new CopyOnWriteArrayList<HttpExchange>();
+    private final AtomicInteger streamsOpened = new AtomicInteger();
+
+    /**
+     * Start a stub backend on a free port.
+     * @param tutorCount Number of tutors returned by /api/find_tutors.
+     * @param lectureCount Number of lectures returned by /api/list_lectures.
+     * @param threads Number of threads serving requests.
+     * @throws IOException If the server cannot be started.
+     */
+    public StubBackend(int tutorCount, int lectureCount, int threads) throws IOException {
+        this(0, tutorCount, lectureCount, threads);
+    }
+
+    /**
+     * Start a stub backend.
+     * @param port Port to listen on, 0 for a free port.
+     * @param tutorCount Number of tutors returned by /api/find_tutors.
+     * @param lectureCount Number of lectures returned by /api/list_lectures.
+     * @param threads Number of threads serving requests.
+     * @throws IOException If the server cannot be started.
+     */
+    public StubBackend(int port, int tutorCount, int lectureCount, int threads) throws IOException {
+        this.tutors = tutors(tutorCount);
+        this.tutorsBody = tutorsJson(tutors).getBytes(StandardCharsets.UTF_8);
+        this.lecturesBody = lecturesJson(lectureCount).getBytes(StandardCharsets.UTF_8);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Get the URL to set up the Server with.
+     * @return the URL of the stub.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Generate tutors spread across a few localities and subjects.
+     * @param count Number of tutors.
+     * @return the tutors.
+     */
+    static List<Tutor> tutors(int count) {
+        List<Tutor> tutors = new ArrayList<Tutor>(count);
+        for (int i = 0; i < count; i++) {
+            tutors.add(new Tutor("tutor" + i, "Tutor Number " + i, null, LOCALITIES[i % LOCALITIES.length],
+                    WEEKDAYS[i % WEEKDAYS.length], EXPERTISE[i % EXPERTISE.length]));
+        }
+        return tutors;
+    }
+
+    /**
+     * Generate the body of a tutor search response.
+     * @param tutors The tutors.
+     * @return the body as a JSON string.
+     */
+    static String tutorsJson(List<Tutor> tutors) {
+        return "{\"response\":" + JsonCodec.GSON.toJson(tutors) + "}";
+    }
+
+    /**
+     * Generate lectures between a student and the generated tutors.
+     * @param count Number of lectures.
+     * @return the lectures.
+     */
+    static List<Lecture> lectures(int count) {
+        List<Lecture> lectures = new ArrayList<Lecture>(count);
+        LocalDate first = LocalDate.of(2026, 1, 1);
+        for (int i = 0; i < count; i++) {
+            lectures.add(new Lecture(i, "tutor" + (i % 1000), "student",
+                    i % 3 == 0 ? LectureState.CONFIRMED : LectureState.REQUESTED,
+                    Date.valueOf(first.plusDays(i % 365))));
+        }
+        return lectures;
+    }
+
+    /**
+     * Generate the body of a lecture list response.
+     * @param count Number of lectures.
+     * @return the body as a JSON string.
+     */
+    static String lecturesJson(int count) {
+        return JsonCodec.GSON.toJson(lectures(count));
+    }
+
+    /**
+     * Push a lecture change to the open lecture event streams of its tutor and student.
+     * @param lecture The lecture in its new state.
+     */
+    public synchronized void publish(Lecture lecture) {
+        events.add(JsonCodec.GSON.toJson(lecture));
+        notifyAll();
+    }
+
+    /**
+     * Get the number of lecture event streams opened so far. A stream counts
+     * once it is open, so the events published from then on reach it.
+     * @return the number of streams opened.
+     */
+    public int getStreamsOpened() {
+        return streamsOpened.get();
+    }
+
+    /**
+     * Drop every open lecture event stream, as a restarting server would.
+     */
+    public void dropStreams() {
+        for (HttpExchange stream : streams) {
+            stream.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        byte[] input;
+        try (InputStream body = exchange.getRequestBody()) {
+            input = body.readAllBytes();
+        }
+        if (path.startsWith("/api/login")) {
+            reply(exchange, 200, "{\"access_token\":\"token\"}".getBytes(StandardCharsets.UTF_8));
+        } else if (path.startsWith("/api/get_user_type")) {
+            reply(exchange, 200, (isTutor(username(input)) ? "tutor" : "student").getBytes(StandardCharsets.UTF_8));
+        } else if (path.startsWith("/api/get_user_profile")) {
+            reply(exchange, 200, profile(username(input)).getBytes(StandardCharsets.UTF_8));
+        } else if (path.startsWith("/api/find_tutors")) {
+            reply(exchange, 200, findTutors(input));
+        } else if (path.startsWith("/api/lecture_events")) {
+            streamLectureEvents(exchange);
+        } else if (path.startsWith("/api/list_lectures")) {
+            if (LECTURES_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                reply(exchange, 304, null);
+            } else {
+                exchange.getResponseHeaders().add("ETag", LECTURES_ETAG);
+                reply(exchange, 200, lecturesBody);
+            }
+        } else {
+            reply(exchange, 200, "{}".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Stream the lecture changes of the users in the query as server-sent events,
+     * from the event after Last-Event-ID, or from now on without one.
+     * @param exchange The request.
+     * @throws IOException If the stream cannot be written.
+     */
+    private void streamLectureEvents(HttpExchange exchange) throws IOException {
+        Set<String> users = new HashSet<String>();
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("users=")) {
+            users.addAll(Arrays.asList(query.substring(6).split(",")));
+        }
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        int next;
+        synchronized (this) {
+            next = lastEventId == null ? events.size() : Integer.parseInt(lastEventId);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        streams.add(exchange);
+        streamsOpened.incrementAndGet();
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                List<String> batch;
+                synchronized (this) {
+                    if (events.size() <= next) {
+                        wait(KEEP_ALIVE_MILLIS);
+                    }
+                    batch = new ArrayList<String>(events.subList(next, events.size()));
+                }
+                StringBuilder chunk = new StringBuilder(batch.isEmpty() ? ": keep-alive\n\n" : "");
+                for (String event : batch) {
+                    next++;
+                    Lecture lecture = JsonCodec.GSON.fromJson(event, Lecture.class);
+                    if (users.contains(lecture.getTutorName()) || users.contains(lecture.getStudentName())) {
+                        chunk.append("id: ").append(next).append("\ndata: ").append(event).append("\n\n");
+                    }
+                }
+                if (chunk.length() > 0) {
+                    out.write(chunk.toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopping.
+        } catch (IOException e) {
+            // The client went away.
+        } finally {
+            streams.remove(exchange);
+        }
+    }
+
+    private static String username(byte[] input) {
+        Map<?, ?> arguments = JsonCodec.GSON.fromJson(new String(input, StandardCharsets.UTF_8), Map.class);
+        Object username = arguments == null ? null : arguments.get("username");
+        return username == null ? "student" : username.toString();
+    }
+
+    private static boolean isTutor(String username) {
+        return username.startsWith("tutor");
+    }
+
+    /**
+     * Generate the profile of a user.
+     * @param username Username of the user.
+     * @return the profile as a JSON string.
+     */
+    private static String profile(String username) {
+        Map<String, String> profile = new LinkedHashMap<String, String>();
+        profile.put("username", username);
+        profile.put("name", isTutor(username) ? "Tutor " + username : "Student");
+        profile.put("locality", "London");
+        if (isTutor(username)) {
+            profile.put("allowed_weekdays", "0123456");
+            profile.put("expertise", "Maths");
+        }
+        return JsonCodec.GSON.toJson(profile);
+    }
+
+    /**
+     * Answer a tutor search, one page of it if a page is requested.
+     * @param input Body of the request.
+     * @return the body of the response.
+     */
+    private byte[] findTutors(byte[] input) {
+        Map<?, ?> filter = JsonCodec.GSON.fromJson(new String(input, StandardCharsets.UTF_8), Map.class);
+        if (filter == null || !filter.containsKey("page_size")) {
+            return tutorsBody;
+        }
+        int page = ((Number) filter.get("page")).intValue();
+        int pageSize = ((Number) filter.get("page_size")).intValue();
+        int from = Math.min(tutors.size(), page * pageSize);
+        int to = Math.min(tutors.size(), from + pageSize);
+        return tutorsJson(tutors.subList(from, to)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void reply(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (body == null) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run the stub on its own, for manual testing and load generation.
+     * Arguments: port, number of tutors, number of lectures, threads.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int tutorCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int lectureCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        StubBackend backend = new StubBackend(port, tutorCount, lectureCount, threads);
+        System.out.println("Stub backend listening on " + backend.getUrl());
+    }
+}
@@ -0,0 +1,279 @@
+package com.vulpex.silene;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the requests made with an API key are sent: a token bucket
+ * limits the rate of requests, endpoints can be limited to a number of
+ * requests in flight, and requests that cannot be sent yet wait in a bounded
+ * queue per priority. Waiting interactive requests are sent before waiting
+ * bulk ones, and requests of a priority whose queue is full are rejected at
+ * once. A request that can be sent at once, and would not pass a waiting
+ * request that can be sent too, is never queued. A request that waits for a
+ * busy endpoint does not hold back requests to other endpoints.
+ *
+ * Until a limit is set, requests are admitted at once and only counted in
+ * the stats.
+ */
+final class AdmissionControl {
+    static final int DEFAULT_QUEUE_LIMIT = 1024;
+    private static final Runnable NO_RELEASE = () -> {};
+    private final Object lock = new Object();
+    private final Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>(); // Guarded by lock.
+    private final List<ArrayDeque<Waiter>> queues;
+    private final int[] queueLimits;
+    private final AdmissionStats[] stats;
+    private volatile boolean limited;
+    private double tokensPerNano; // Guarded by lock, 0 when the rate is not limited.
+    private double burst; // Guarded by lock.
+    private double tokens; // Guarded by lock.
+    private long refilledAt; // Guarded by lock.
+    private boolean drainScheduled; // Guarded by lock.
+
+    /**
+     * The requests in flight to an endpoint, and how many it may have.
+     */
+    private static final class Endpoint {
+        int limit;
+        int active;
+
+        boolean hasCapacity() {
+            return limit <= 0 || active < limit;
+        }
+    }
+
+    /**
+     * A request waiting for admission.
+     */
+    private static final class Waiter {
+        final Endpoint endpoint;
+        final Priority priority;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Runnable> admitted = new CompletableFuture<Runnable>();
+
+        Waiter(Endpoint endpoint, Priority priority) {
+            this.endpoint = endpoint;
+            this.priority = priority;
+        }
+    }
+
+    AdmissionControl() {
+        Priority[] priorities = Priority.values();
+        queues = new ArrayList<ArrayDeque<Waiter>>(priorities.length);
+        queueLimits = new int[priorities.length];
+        stats = new AdmissionStats[priorities.length];
+        for (Priority priority : priorities) {
+            queues.add(new ArrayDeque<Waiter>());
+            queueLimits[priority.ordinal()] = DEFAULT_QUEUE_LIMIT;
+            stats[priority.ordinal()] = new AdmissionStats(priority);
+        }
+    }
+
+    /**
+     * Limit the rate of requests.
+     * @param permitsPerSecond Requests sent per second on average, 0 or less removes the limit.
+     * @param burst Requests that can be sent at once after a quiet period.
+     */
+    void setRateLimit(double permitsPerSecond, int burst) {
+        synchronized (lock) {
+            refill(System.nanoTime());
+            boolean wasLimited = tokensPerNano > 0;
+            this.tokensPerNano = permitsPerSecond > 0 ? permitsPerSecond / 1e9 : 0;
+            this.burst = Math.max(1, burst);
+            this.tokens = wasLimited ? Math.min(tokens, this.burst) : this.burst; // Start with a full bucket.
+            updateLimited();
+        }
+        drain();
+    }
+
+    /**
+     * Limit the requests in flight to an endpoint.
+     * @param key Method and URI of the endpoint.
+     * @param maxConcurrent Requests in flight at most, 0 or less removes the limit.
+     */
+    void setConcurrencyLimit(String key, int maxConcurrent) {
+        synchronized (lock) {
+            endpoint(key).limit = maxConcurrent;
+            updateLimited();
+        }
+        drain();
+    }
+
+    /**
+     * Bound the queue of a priority.
+     * @param priority The priority.
+     * @param maxQueued Requests that can wait at most, beyond which they are rejected.
+     */
+    void setQueueLimit(Priority priority, int maxQueued) {
+        synchronized (lock) {
+            queueLimits[priority.ordinal()] = Math.max(0, maxQueued);
+        }
+    }
+
+    AdmissionStats getStats(Priority priority) {
+        return stats[priority.ordinal()];
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void updateLimited() {
+        boolean anyLimit = tokensPerNano > 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            anyLimit |= endpoint.limit > 0;
+        }
+        limited = anyLimit;
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private Endpoint endpoint(String key) {
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            endpoints.put(key, endpoint);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Add the tokens earned since the last refill. Must hold the lock.
+     * @param now The current time.
+     */
+    private void refill(long now) {
+        if (tokensPerNano > 0) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        }
+        refilledAt = now;
+    }
+
+    /**
+     * Wait for a request to be admitted.
+     * @param key Method and URI of the endpoint.
+     * @param priority Priority of the request.
+     * @return a future that completes with the action to run once the request
+     * completes, or exceptionally with a RequestRejectedException if the queue of the priority is full.
+     */
+    CompletableFuture<Runnable> admit(String key, Priority priority) {
+        if (!limited) {
+            stats[priority.ordinal()].admitted(0, false);
+            return CompletableFuture.completedFuture(NO_RELEASE);
+        }
+        Waiter waiter;
+        synchronized (lock) {
+            Endpoint endpoint = endpoint(key);
+            if (canAdmitAtOnce(endpoint, priority)) {
+                if (tokensPerNano > 0) {
+                    tokens -= 1;
+                }
+                endpoint.active++;
+                stats[priority.ordinal()].admitted(0, false);
+                return CompletableFuture.completedFuture(() -> release(endpoint));
+            }
+            ArrayDeque<Waiter> queue = queues.get(priority.ordinal());
+            if (queue.size() >= queueLimits[priority.ordinal()]) {
+                stats[priority.ordinal()].rejected();
+                return CompletableFuture.failedFuture(new RequestRejectedException(
+                        "Too many " + priority.name().toLowerCase() + " requests are waiting to be sent."));
+            }
+            waiter = new Waiter(endpoint, priority);
+            queue.addLast(waiter);
+            stats[priority.ordinal()].enqueued();
+        }
+        drain();
+        return waiter.admitted;
+    }
+
+    /**
+     * Check if a request can be sent without waiting: its endpoint has room,
+     * a token is left and no waiting request of the same or a higher priority
+     * could take them first. Must hold the lock.
+     * @param endpoint Endpoint of the request.
+     * @param priority Priority of the request.
+     * @return True if the request can be admitted at once.
+     */
+    private boolean canAdmitAtOnce(Endpoint endpoint, Priority priority) {
+        if (!endpoint.hasCapacity()) {
+            return false;
+        }
+        refill(System.nanoTime());
+        if (tokensPerNano > 0 && tokens < 1) {
+            return false;
+        }
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            for (Waiter waiter : queues.get(i)) {
+                if (waiter.endpoint.hasCapacity()) {
+                    return false; // Admitted by the next drain, ahead of this request.
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Admit the waiting requests that can be sent now, by priority then in
+     * order, and schedule another pass for when the next token is earned.
+     */
+    private void drain() {
+        List<Waiter> admitted = new ArrayList<Waiter>();
+        synchronized (lock) {
+            long now = System.nanoTime();
+            refill(now);
+            boolean outOfTokens = false;
+            for (ArrayDeque<Waiter> queue : queues) {
+                for (Iterator<Waiter> it = queue.iterator(); it.hasNext() && !outOfTokens; ) {
+                    Waiter waiter = it.next();
+                    if (!waiter.endpoint.hasCapacity()) {
+                        continue; // Released when a request to its endpoint completes.
+                    }
+                    if (tokensPerNano > 0 && tokens < 1) {
+                        outOfTokens = true;
+                        break;
+                    }
+                    if (tokensPerNano > 0) {
+                        tokens -= 1;
+                    }
+                    waiter.endpoint.active++;
+                    it.remove();
+                    admitted.add(waiter);
+                }
+            }
+            if (outOfTokens && !drainScheduled) {
+                drainScheduled = true;
+                long delay = (long) Math.ceil((1 - tokens) / tokensPerNano);
+                CompletableFuture.runAsync(() -> {
+                    synchronized (lock) {
+                        drainScheduled = false;
+                    }
+                    drain();
+                }, CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS));
+            }
+        }
+        long now = System.nanoTime();
+        for (Waiter waiter : admitted) {
+            stats[waiter.priority.ordinal()].admitted(now - waiter.enqueuedAt, true);
+            if (!waiter.admitted.complete(() -> release(waiter.endpoint))) {
+                release(waiter.endpoint); // Cancelled while waiting.
+            }
+        }
+    }
+
+    /**
+     * Make room for another request to an endpoint.
+     * @param endpoint The endpoint of a completed request.
+     */
+    private void release(Endpoint endpoint) {
+        synchronized (lock) {
+            endpoint.active--;
+        }
+        drain();
+    }
+}
@@ -0,0 +1,62 @@
+package com.vulpex.silene;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queueing of the requests of one priority waiting for admission: how many
+ * wait, how long they waited and how many were turned away.
+ */
+public class AdmissionStats {
+    private final Priority priority;
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    AdmissionStats(Priority priority) {
+        this.priority = priority;
+    }
+
+    void enqueued() {
+        queued.incrementAndGet();
+    }
+
+    void admitted(long waitNanos, boolean wasQueued) {
+        if (wasQueued) {
+            queued.decrementAndGet();
+        }
+        waitTime.record(waitNanos);
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get the number of requests waiting for admission now.
+     * @return the queue depth.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Get how long admitted requests waited, including the ones admitted at once.
+     * @return the histogram of wait times.
+     */
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public long getAdmitted() {
+        return waitTime.getCount();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
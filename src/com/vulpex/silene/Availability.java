@@ -0,0 +1,120 @@
+package com.vulpex.silene;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact availability of a tutor: a weekday bitmask where bit 0 is Sunday,
+ * and the sorted epoch days the server refused lectures on as full.
+ */
+final class Availability {
+    private final int weekdayMask;
+    private long[] fullDays = new long[0];
+    private int fullCount = 0;
+
+    /**
+     * Initialise an Availability.
+     * @param allowedWeekdays Weekdays as digits indexed from Sunday, like 034.
+     */
+    Availability(String allowedWeekdays) {
+        this.weekdayMask = weekdayMask(allowedWeekdays);
+    }
+
+    /**
+     * Convert a weekday string like 034 (Sunday Wednesday Thursday) to a bitmask
+     * where bit 0 is Sunday.
+     * @param allowedWeekdays Weekdays as digits indexed from Sunday.
+     * @return the weekday bitmask.
+     */
+    static int weekdayMask(String allowedWeekdays) {
+        int mask = 0;
+        if (allowedWeekdays != null) {
+            for (int i = 0; i < allowedWeekdays.length(); i++) {
+                int day = allowedWeekdays.charAt(i) - '0';
+                if (day >= 0 && day <= 6) {
+                    mask |= 1 << day;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Convert days of the week to a bitmask where bit 0 is Sunday.
+     * @param days Days of the week.
+     * @return the weekday bitmask.
+     */
+    static int weekdayMask(DayOfWeek... days) {
+        int mask = 0;
+        for (DayOfWeek day : days) {
+            mask |= 1 << (day.getValue() % 7);
+        }
+        return mask;
+    }
+
+    /**
+     * Get the local day a date falls on.
+     * @param date A date, including java.sql.Date.
+     * @return the local day of the date.
+     */
+    static LocalDate toLocalDate(Date date) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    int getWeekdayMask() {
+        return weekdayMask;
+    }
+
+    /**
+     * Check if a day is a working day of the tutor and is not known to be full.
+     * @param day Day to check.
+     * @return True if the day is available.
+     */
+    synchronized boolean isAvailable(LocalDate day) {
+        return (weekdayMask & (1 << (day.getDayOfWeek().getValue() % 7))) != 0
+                && Arrays.binarySearch(fullDays, 0, fullCount, day.toEpochDay()) < 0;
+    }
+
+    /**
+     * Record a day as full.
+     * @param day Day that is full.
+     */
+    synchronized void markFull(LocalDate day) {
+        int index = Arrays.binarySearch(fullDays, 0, fullCount, day.toEpochDay());
+        if (index >= 0) {
+            return;
+        }
+        int insertAt = -index - 1;
+        if (fullCount == fullDays.length) {
+            fullDays = Arrays.copyOf(fullDays, Math.max(4, fullCount * 2));
+        }
+        System.arraycopy(fullDays, insertAt, fullDays, insertAt + 1, fullCount - insertAt);
+        fullDays[insertAt] = day.toEpochDay();
+        fullCount++;
+    }
+
+    /**
+     * Find the next available days.
+     * @param from First day to consider.
+     * @param count Number of days to find.
+     * @return up to count available days, in order.
+     */
+    synchronized List<LocalDate> nextAvailable(LocalDate from, int count) {
+        List<LocalDate> days = new ArrayList<LocalDate>(count);
+        if (weekdayMask == 0) {
+            return days;
+        }
+        for (LocalDate day = from; days.size() < count; day = day.plusDays(1)) {
+            if (isAvailable(day)) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+}
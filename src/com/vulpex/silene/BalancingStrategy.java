@@ -0,0 +1,13 @@
+package com.vulpex.silene;
+
+/**
+ * Defines how requests are spread across the nodes of a Server.
+ * ROUND_ROBIN sends requests to each node in turn.
+ * LEAST_OUTSTANDING sends a request to the node with the fewest requests in flight.
+ * LATENCY_WEIGHTED favours nodes that have recently answered faster.
+ */
+public enum BalancingStrategy {
+    ROUND_ROBIN,
+    LEAST_OUTSTANDING,
+    LATENCY_WEIGHTED
+}
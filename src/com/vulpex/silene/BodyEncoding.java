@@ -0,0 +1,195 @@
+package com.vulpex.silene;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes request bodies and decodes response bodies as bytes, compressing
+ * and decompressing them as negotiated with the server. Bodies are always
+ * UTF-8. Scratch buffers are reused per thread, so encoding and decoding
+ * allocate little more than the resulting body.
+ */
+final class BodyEncoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+    private static final ThreadLocal<ScratchBuffer> BUFFERS = ThreadLocal.withInitial(ScratchBuffer::new);
+
+    /**
+     * Reads a response body as a string, decompressing it if needed.
+     */
+    static final HttpResponse.BodyHandler<String> STRING = responseInfo -> {
+        String encoding = contentEncoding(responseInfo.headers());
+        if (encoding.equals("identity")) {
+            return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }
+        return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                compressed -> inflateToString(compressed, encoding));
+    };
+
+    private BodyEncoding() {}
+
+    /**
+     * The encoded body of a request, ready to be sent as many times as needed.
+     */
+    static final class RequestBody {
+        final byte[] bytes;
+        final boolean gzipped;
+
+        private RequestBody(byte[] bytes, boolean gzipped) {
+            this.bytes = bytes;
+            this.gzipped = gzipped;
+        }
+    }
+
+    /**
+     * Encode the body of a request, compressing it if it is large enough.
+     * @param input The body, may be null or empty.
+     * @param compressionThreshold Size in bytes from which the body is gzipped, or a negative number to never compress.
+     * @return the encoded body, or null if there is none.
+     */
+    static RequestBody encode(String input, int compressionThreshold) {
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+        if (compressionThreshold < 0 || utf8Length(input) < compressionThreshold) {
+            return new RequestBody(input.getBytes(StandardCharsets.UTF_8), false);
+        }
+        ScratchBuffer out = buffer();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out, BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            writer.write(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Writing to memory does not fail.
+        }
+        return new RequestBody(out.toByteArray(), true);
+    }
+
+    /**
+     * Decompress a response body as its Content-Encoding says.
+     * @param body The body as received.
+     * @param headers Headers of the response.
+     * @return the decompressed body.
+     * @throws IOException If the encoding is not supported or the body is corrupt.
+     */
+    static InputStream decoded(InputStream body, HttpHeaders headers) throws IOException {
+        return decoded(body, contentEncoding(headers));
+    }
+
+    private static InputStream decoded(InputStream body, String encoding) throws IOException {
+        switch (encoding) {
+            case "identity":
+                return body;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body, BUFFER_SIZE);
+            case "deflate":
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(body, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            default:
+                throw new IOException("Unsupported content encoding " + encoding + ".");
+        }
+    }
+
+    private static String contentEncoding(HttpHeaders headers) {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        return encoding.isEmpty() ? "identity" : encoding;
+    }
+
+    private static String inflateToString(byte[] compressed, String encoding) {
+        ScratchBuffer out = buffer();
+        try (InputStream in = decoded(new ByteArrayInputStream(compressed), encoding)) {
+            out.readFrom(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the scratch buffer of the calling thread, emptied. A buffer that
+     * grew very large is dropped rather than kept for the life of the thread.
+     * @return the scratch buffer.
+     */
+    private static ScratchBuffer buffer() {
+        ScratchBuffer buffer = BUFFERS.get();
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            buffer = new ScratchBuffer();
+            BUFFERS.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Get the size of a string encoded in UTF-8, without encoding it.
+     * @param s The string.
+     * @return the size in bytes.
+     */
+    static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A growable byte buffer that can be filled from a stream without an
+     * intermediate copy.
+     */
+    private static final class ScratchBuffer extends ByteArrayOutputStream {
+        ScratchBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        void readFrom(InputStream in) throws IOException {
+            int read;
+            do {
+                if (count == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                read = in.read(buf, count, buf.length - count);
+                if (read > 0) {
+                    count += read;
+                }
+            } while (read >= 0);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.vulpex.silene;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Result of resolving many users at once. Every requested username ends up
+ * either in the resolved users or in the failures, never in both.
+ */
+public class BulkUserResult {
+    private final Map<String, User> users;
+    private final Map<String, Exception> failures;
+
+    BulkUserResult(Map<String, User> users, Map<String, Exception> failures) {
+        this.users = Collections.unmodifiableMap(users);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Get the resolved users.
+     * @return the users, keyed by username.
+     */
+    public Map<String, User> getUsers() { return this.users; }
+
+    /**
+     * Get the usernames that could not be resolved.
+     * @return the exception each username failed with, keyed by username.
+     */
+    public Map<String, Exception> getFailures() { return this.failures; }
+
+    public boolean hasFailures() { return !this.failures.isEmpty(); }
+}
@@ -0,0 +1,64 @@
+package com.vulpex.silene;
+
+import java.net.http.HttpHeaders;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Validators of a cached response, sent back to the server so it can answer
+ * 304 Not Modified instead of resending an unchanged body.
+ */
+final class CacheValidators {
+    private String etag;
+    private String lastModified;
+
+    /**
+     * Get the conditional request headers for the cached response.
+     * @return the If-None-Match and If-Modified-Since headers, as far as known.
+     */
+    synchronized Map<String, String> toHeaders() {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * Remember the validators of a fresh response.
+     * @param headers Headers of the response.
+     */
+    synchronized void update(HttpHeaders headers) {
+        etag = headers.firstValue("ETag").orElse(null);
+        lastModified = headers.firstValue("Last-Modified").orElse(null);
+    }
+
+    synchronized String getEtag() {
+        return etag;
+    }
+
+    synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Restore validators saved earlier.
+     * @param etag The ETag, or null.
+     * @param lastModified The Last-Modified date, or null.
+     */
+    synchronized void restore(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Forget the validators, so the next request fetches the full body.
+     */
+    synchronized void clear() {
+        etag = null;
+        lastModified = null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.vulpex.silene;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A call made of several asynchronous steps, such as the admission and the
+ * attempts of a request. Futures derived from a step do not pass their
+ * cancellation back to it, so the call keeps track of the step it waits on:
+ * cancelling the future of the call cancels that step, which for a request
+ * in flight aborts its exchange.
+ */
+final class CancellableCall {
+    private final CompletableFuture<?> future;
+    private volatile CompletableFuture<?> step;
+
+    private CancellableCall(CompletableFuture<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Start a call.
+     * @param steps Starts the steps of the call, registering each with {@link #step(CompletableFuture)}.
+     * @param <T> Type of the result.
+     * @return the future of the call, which cancels the current step when cancelled.
+     */
+    static <T> CompletableFuture<T> start(Function<CancellableCall, CompletableFuture<T>> steps) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        CancellableCall call = new CancellableCall(future);
+        future.whenComplete((result, error) -> {
+            CompletableFuture<?> step = call.step;
+            if (step != null && future.isCancelled()) {
+                step.cancel(true);
+            }
+        });
+        CompletableFuture<T> done;
+        try {
+            done = steps.apply(call);
+        } catch (RuntimeException e) {
+            done = CompletableFuture.failedFuture(e);
+        }
+        done.whenComplete((result, error) -> {
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Make a future the step the call waits on. It is cancelled at once if the call already is.
+     * @param step The step.
+     * @param <T> Type of the result of the step.
+     * @return the step.
+     */
+    <T> CompletableFuture<T> step(CompletableFuture<T> step) {
+        this.step = step;
+        if (future.isCancelled()) {
+            step.cancel(true);
+        }
+        return step;
+    }
+
+    boolean isCancelled() {
+        return future.isCancelled();
+    }
+}
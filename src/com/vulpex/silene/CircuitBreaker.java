@@ -0,0 +1,87 @@
+package com.vulpex.silene;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Stops sending requests to a server that keeps failing. After a number of
+ * consecutive failures the circuit opens and requests fail fast; once the
+ * open duration has passed a single readiness probe decides whether the
+ * circuit closes again or stays open.
+ */
+final class CircuitBreaker {
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+    private CompletableFuture<Boolean> probe;
+
+    /**
+     * Initialise a CircuitBreaker.
+     * @param failureThreshold Consecutive failures that open the circuit, 0 disables the breaker.
+     * @param openNanos How long the circuit stays open before it is probed.
+     */
+    CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * Ask to send a request.
+     * @param prober Starts a readiness probe of the server, completing with whether it is ready.
+     * @return a future that completes once the request may be sent, or
+     * exceptionally with a ServerException while the circuit is open.
+     */
+    synchronized CompletableFuture<Void> acquire(Supplier<CompletableFuture<Boolean>> prober) {
+        if (state == State.CLOSED) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return CompletableFuture.failedFuture(new ServerUnavailableException("Server unavailable, circuit is open."));
+            }
+            state = State.HALF_OPEN;
+            probe = prober.get().handle((ready, error) -> {
+                boolean closed = error == null && ready;
+                onProbe(closed);
+                return closed;
+            });
+        }
+        return probe.thenCompose(closed -> closed ? CompletableFuture.<Void>completedFuture(null)
+                : CompletableFuture.<Void>failedFuture(new ServerUnavailableException("Server unavailable, circuit is open.")));
+    }
+
+    private synchronized void onProbe(boolean ready) {
+        if (ready) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        } else {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    synchronized void recordSuccess() {
+        if (state == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    synchronized void recordFailure() {
+        if (state == State.CLOSED && failureThreshold > 0 && ++consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,39 @@
+package com.vulpex.silene;
+
+import java.net.http.HttpHeaders;
+
+/**
+ * The answer to a conditional request: either Not Modified, or a fresh body
+ * along with the headers carrying its validators. The validators are left to
+ * the caller to store, together with the body they belong to.
+ * @param <T> Type of the decoded body.
+ */
+final class ConditionalResponse<T> {
+    private final T body;
+    private final HttpHeaders headers;
+
+    ConditionalResponse(T body, HttpHeaders headers) {
+        this.body = body;
+        this.headers = headers;
+    }
+
+    /**
+     * Check if the server sent a fresh body.
+     * @return False if the server answered 304 Not Modified.
+     */
+    boolean isModified() {
+        return body != null;
+    }
+
+    /**
+     * Get the fresh body.
+     * @return the decoded body, or null if it was not modified.
+     */
+    T getBody() {
+        return body;
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+}
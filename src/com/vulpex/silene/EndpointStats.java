@@ -0,0 +1,94 @@
+package com.vulpex.silene;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies, traffic and outcomes of the requests sent with one HTTP method
+ * to one endpoint.
+ */
+public class EndpointStats {
+    private final String method;
+    private final String endpoint;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(600);
+    private final Map<Class<?>, LongAdder> errors = new ConcurrentHashMap<Class<?>, LongAdder>();
+
+    EndpointStats(String method, String endpoint) {
+        this.method = method;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Record a completed request.
+     * @see MetricsListener#onRequest(String, String, int, long, long, long, int, Throwable)
+     */
+    void record(int statusCode, long latencyNanos, long bytesSent, long bytesReceived, int attempts, Throwable error) {
+        latency.record(latencyNanos);
+        retries.add(attempts - 1);
+        this.bytesSent.add(bytesSent);
+        this.bytesReceived.add(bytesReceived);
+        if (statusCode > 0 && statusCode < statusCounts.length()) {
+            statusCounts.incrementAndGet(statusCode);
+        }
+        if (error != null) {
+            errors.computeIfAbsent(error.getClass(), type -> new LongAdder()).increment();
+        }
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Get the number of requests whose last response had a status code.
+     * @param statusCode The status code.
+     * @return the number of requests.
+     */
+    public long getStatusCount(int statusCode) {
+        return statusCode > 0 && statusCode < statusCounts.length() ? statusCounts.get(statusCode) : 0;
+    }
+
+    /**
+     * Get the number of failed requests by the exception they failed with, such
+     * as InvalidJSONException or UnsatisfiableCriteriaException.
+     * @return the number of failures keyed by the simple name of the exception.
+     */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<Class<?>, LongAdder> entry : errors.entrySet()) {
+            counts.merge(entry.getKey().getSimpleName(), entry.getValue().sum(), Long::sum);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,271 @@
+package com.vulpex.silene;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a JSON response directly from a reader positioned at its start.
+ * @param <T> Type of the decoded value.
+ */
+interface ResponseDecoder<T> {
+    T decode(JsonReader reader) throws IOException;
+}
+
+/**
+ * Holds the JSON codecs of the library. Tutors and lectures are decoded with
+ * registered type adapters straight from the response stream, so no
+ * intermediate string or map tree is built.
+ */
+final class JsonCodec {
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Tutor.class, new TutorAdapter(null))
+            .registerTypeAdapter(Lecture.class, new LectureAdapter())
+            .create();
+
+    private JsonCodec() {}
+
+    /**
+     * Decodes a tutor search response into tutors bound to no client, which
+     * make their requests through the default client.
+     */
+    static final ResponseDecoder<List<Tutor>> TUTORS = tutors(null);
+
+    /**
+     * Create a decoder of tutor search responses of the form {"response": [tutor, ...]}.
+     * @param client Client the decoded tutors make their requests through, or null for the default client.
+     * @return the decoder.
+     */
+    static ResponseDecoder<List<Tutor>> tutors(SileneClient client) {
+        TypeAdapter<Tutor> adapter = new TutorAdapter(client);
+        return reader -> {
+            List<Tutor> tutors = new ArrayList<Tutor>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("response") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        tutors.add(adapter.read(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return tutors;
+        };
+    }
+
+    /**
+     * Decodes a lecture list response of the form [lecture, ...].
+     */
+    static final ResponseDecoder<List<Lecture>> LECTURES = reader -> {
+        List<Lecture> lectures = new ArrayList<Lecture>();
+        TypeAdapter<Lecture> adapter = GSON.getAdapter(Lecture.class);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            lectures.add(adapter.read(reader));
+        }
+        reader.endArray();
+        return lectures;
+    };
+
+    /**
+     * Decodes a lecture list response of the form [lecture, ...] straight into
+     * the columns of a table, without creating a Lecture or a Date per lecture.
+     */
+    static final ResponseDecoder<LectureTable> LECTURE_TABLE = reader -> {
+        LectureTable.Builder table = new LectureTable.Builder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int lectureId = 0;
+            String tutor = null, student = null;
+            LectureState state = null;
+            LocalDate time = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "obj_id":
+                        lectureId = reader.nextInt();
+                        break;
+                    case "tutor":
+                        tutor = nextNullableString(reader);
+                        break;
+                    case "student":
+                        student = nextNullableString(reader);
+                        break;
+                    case "state":
+                        state = LectureState.valueOf(reader.nextString().toUpperCase());
+                        break;
+                    case "time":
+                        time = LocalDate.parse(reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            table.add(lectureId, tutor, student, state, time);
+        }
+        reader.endArray();
+        return table.build();
+    };
+
+    /**
+     * Build the adapters of the library, those of request bodies included, and
+     * run the codecs on sample payloads so the first responses find them loaded
+     * and compiled rather than interpreted.
+     * @param iterations Times the sample payloads are encoded and decoded, 0 to only build the adapters.
+     * @throws IOException If a sample payload cannot be decoded.
+     */
+    static void warmUp(int iterations) throws IOException {
+        TypeAdapter<Tutor> tutorAdapter = GSON.getAdapter(Tutor.class);
+        TypeAdapter<Lecture> lectureAdapter = GSON.getAdapter(Lecture.class);
+        GSON.getAdapter(new TypeToken<Map<String, Object>>() {});
+        GSON.getAdapter(HashMap.class);
+        Tutor tutor = new Tutor("warmup", "Warm Up", null, "London", "135", "Mathematics");
+        Lecture lecture = new Lecture(1, "warmup", "student", LectureState.REQUESTED, Date.valueOf("2000-01-01"));
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("username", "warmup");
+        request.put("scheduled", 0L);
+        for (int i = 0; i < iterations; i++) {
+            String tutors = "{\"response\": [" + tutorAdapter.toJson(tutor) + "]}";
+            String lectures = "[" + lectureAdapter.toJson(lecture) + "]";
+            TUTORS.decode(new JsonReader(new StringReader(tutors)));
+            LECTURES.decode(new JsonReader(new StringReader(lectures)));
+            LECTURE_TABLE.decode(new JsonReader(new StringReader(lectures)));
+            GSON.fromJson(GSON.toJson(request), HashMap.class);
+        }
+    }
+
+    /**
+     * Read a string value, mapping JSON null to null.
+     * @param reader Reader positioned at a value.
+     * @return the string value.
+     * @throws IOException If the value cannot be read.
+     */
+    private static String nextNullableString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Type adapter for tutors as returned by /api/find_tutors.
+     */
+    static final class TutorAdapter extends TypeAdapter<Tutor> {
+        private final SileneClient client;
+
+        /**
+         * Initialise a TutorAdapter.
+         * @param client Client the decoded tutors make their requests through, or null for the default client.
+         */
+        TutorAdapter(SileneClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void write(JsonWriter out, Tutor tutor) throws IOException {
+            out.beginObject();
+            out.name("username").value(tutor.getUsername());
+            out.name("name").value(tutor.getName());
+            out.name("locality").value(tutor.getLocality());
+            out.name("allowed_weekdays").value(tutor.getAllowedWeekdays());
+            out.name("expertise").value(tutor.getExpertise());
+            out.endObject();
+        }
+
+        @Override
+        public Tutor read(JsonReader in) throws IOException {
+            String username = null, name = null, locality = null, allowedWeekdays = null, expertise = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "username":
+                        username = nextNullableString(in);
+                        break;
+                    case "name":
+                        name = nextNullableString(in);
+                        break;
+                    case "locality":
+                        locality = nextNullableString(in);
+                        break;
+                    case "allowed_weekdays":
+                        allowedWeekdays = nextNullableString(in);
+                        break;
+                    case "expertise":
+                        expertise = nextNullableString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Tutor(client, username, name, null, locality, allowedWeekdays, expertise);
+        }
+    }
+
+    /**
+     * Type adapter for lectures as returned by /api/list_lectures.
+     */
+    static final class LectureAdapter extends TypeAdapter<Lecture> {
+        @Override
+        public void write(JsonWriter out, Lecture lecture) throws IOException {
+            out.beginObject();
+            out.name("obj_id").value(lecture.getLectureId());
+            out.name("tutor").value(lecture.getTutorName());
+            out.name("student").value(lecture.getStudentName());
+            out.name("state").value(lecture.getState().name().toLowerCase());
+            out.name("time").value(new Date(lecture.getScheduledDate().getTime()).toString());
+            out.endObject();
+        }
+
+        @Override
+        public Lecture read(JsonReader in) throws IOException {
+            int lectureId = 0;
+            String tutor = null, student = null;
+            LectureState state = null;
+            Date time = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "obj_id":
+                        lectureId = in.nextInt();
+                        break;
+                    case "tutor":
+                        tutor = nextNullableString(in);
+                        break;
+                    case "student":
+                        student = nextNullableString(in);
+                        break;
+                    case "state":
+                        state = LectureState.valueOf(in.nextString().toUpperCase());
+                        break;
+                    case "time":
+                        time = Date.valueOf(in.nextString());
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Lecture(lectureId, tutor, student, state, time);
+        }
+    }
+}
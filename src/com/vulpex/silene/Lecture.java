@@ -8,7 +8,7 @@ public class Lecture {
     private final String tutorName;
     private final String studentName;
     private final Date scheduledDate;
-    private LectureState state;
+    private volatile LectureState state;
     private final int lectureId;
 
 
@@ -31,5 +31,13 @@ public class Lecture {
         this.state = LectureState.CONFIRMED;
     }
 
+    void setState(LectureState state) {
+        this.state = state;
+    }
+
     public int getLectureId() { return this.lectureId; }
+    public String getTutorName() { return this.tutorName; }
+    public String getStudentName() { return this.studentName; }
+    public Date getScheduledDate() { return this.scheduledDate; }
+    public LectureState getState() { return this.state; }
 }
@@ -0,0 +1,31 @@
+package com.vulpex.silene;
+
+/**
+ * A change to a lecture pushed by the server.
+ */
+public class LectureEvent {
+    private final String eventId;
+    private final Lecture lecture;
+
+    /**
+     * Initialise a LectureEvent.
+     * @param eventId Id of the event in the stream, or null.
+     * @param lecture The lecture as sent with the event.
+     */
+    LectureEvent(String eventId, Lecture lecture) {
+        this.eventId = eventId;
+        this.lecture = lecture;
+    }
+
+    public String getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Get the lecture as sent with the event, in its new state.
+     * @return the lecture.
+     */
+    public Lecture getLecture() {
+        return lecture;
+    }
+}
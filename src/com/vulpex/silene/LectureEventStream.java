@@ -0,0 +1,266 @@
+package com.vulpex.silene;
+
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The stream of lecture changes of a client: one server-sent events stream
+ * carrying the changes of every subscribed user. Changes are applied to the
+ * lectures of the subscribed users and passed to their listeners.
+ *
+ * The stream is read by a single thread, started with the first subscription
+ * and stopped with the last one. When the stream ends or fails it is opened
+ * again after a jittered, growing delay, resuming after the last event
+ * received; when users subscribe or unsubscribe it is opened again at once
+ * for the new set of users.
+ */
+final class LectureEventStream {
+    private static final String EVENTS_URI = "/api/lecture_events";
+    private static final long MIN_RECONNECT_MILLIS = 500;
+    private static final long MAX_RECONNECT_MILLIS = 30000;
+    private final Server server;
+    private final Map<String, List<LectureSubscription>> subscriptions =
+            new ConcurrentHashMap<String, List<LectureSubscription>>();
+    private final Object lock = new Object();
+    private Thread reader; // Guarded by lock.
+    private InputStream current; // Guarded by lock.
+    private boolean resubscribe; // Guarded by lock.
+    private boolean closed; // Guarded by lock.
+    private volatile String lastEventId;
+    private volatile long reconnectMillis = MIN_RECONNECT_MILLIS;
+
+    LectureEventStream(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Subscribe to the lecture changes of a user.
+     * @param user The user.
+     * @param listener Told about each change, once it is applied.
+     * @return the subscription.
+     */
+    LectureSubscription subscribe(User user, LectureListener listener) {
+        LectureSubscription subscription = new LectureSubscription(this, user, listener);
+        boolean added = false;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The client is closed.");
+            }
+            List<LectureSubscription> ofUser = subscriptions.get(user.getUsername());
+            if (ofUser == null) {
+                ofUser = new CopyOnWriteArrayList<LectureSubscription>();
+                subscriptions.put(user.getUsername(), ofUser);
+                added = true;
+            }
+            ofUser.add(subscription);
+            if (reader == null) {
+                reader = new Thread(this::run, "silene-lecture-events");
+                reader.setDaemon(true);
+                reader.start();
+            } else if (added) {
+                reconnect();
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * Cancel a subscription.
+     * @param subscription The subscription.
+     */
+    void unsubscribe(LectureSubscription subscription) {
+        synchronized (lock) {
+            String username = subscription.getUser().getUsername();
+            List<LectureSubscription> ofUser = subscriptions.get(username);
+            if (ofUser != null && ofUser.remove(subscription) && ofUser.isEmpty()) {
+                subscriptions.remove(username);
+                reconnect();
+            }
+        }
+    }
+
+    /**
+     * Close the stream and drop every subscription.
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            subscriptions.clear();
+            reconnect();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Make the reader open the stream again at once, by closing the current one. Must hold the lock.
+     */
+    private void reconnect() {
+        resubscribe = true;
+        lock.notifyAll(); // Skip the delay if waiting to reconnect.
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // The reader sees the stream as closed either way.
+            }
+        }
+    }
+
+    /**
+     * Read the stream until there are no subscriptions left.
+     */
+    private void run() {
+        while (true) {
+            Set<String> usernames;
+            synchronized (lock) {
+                if (closed || subscriptions.isEmpty()) {
+                    reader = null;
+                    return;
+                }
+                usernames = new TreeSet<String>(subscriptions.keySet());
+                resubscribe = false;
+            }
+            try {
+                read(usernames);
+            } catch (Exception e) {
+                // Reconnected below, resuming after the last event received.
+            }
+            synchronized (lock) {
+                current = null;
+                if (!resubscribe && !closed) {
+                    long delay = reconnectMillis;
+                    reconnectMillis = Math.min(MAX_RECONNECT_MILLIS, delay * 2);
+                    try {
+                        lock.wait(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                    } catch (InterruptedException e) {
+                        reader = null;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the stream for some users and apply its events until it ends.
+     * @param usernames Users whose changes are streamed.
+     * @throws Exception If the stream cannot be opened or breaks.
+     */
+    private void read(Set<String> usernames) throws Exception {
+        StringBuilder query = new StringBuilder("users=");
+        for (String username : usernames) {
+            if (query.length() > 6) {
+                query.append(',');
+            }
+            query.append(URLEncoder.encode(username, StandardCharsets.UTF_8));
+        }
+        String resumeFrom = lastEventId;
+        HttpResponse<InputStream> response = Server.await(server.openStream(EVENTS_URI, query.toString(),
+                "text/event-stream", resumeFrom == null
+                        ? Collections.<String, String>emptyMap() : Collections.singletonMap("Last-Event-ID", resumeFrom)));
+        InputStream body = response.body();
+        synchronized (lock) {
+            if (resubscribe || closed) {
+                body.close();
+                return;
+            }
+            current = body;
+        }
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                BodyEncoding.decoded(body, response.headers()), StandardCharsets.UTF_8))) {
+            String id = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty()) {
+                    if (data.length() > 0) {
+                        dispatch(id, data.toString());
+                    }
+                    id = null;
+                    data.setLength(0);
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(line.startsWith(": ", colon) ? colon + 2 : colon + 1);
+                switch (field) {
+                    case "id":
+                        id = value;
+                        break;
+                    case "data":
+                        if (data.length() > 0) {
+                            data.append('\n');
+                        }
+                        data.append(value);
+                        break;
+                    case "retry":
+                        try {
+                            reconnectMillis = Math.max(MIN_RECONNECT_MILLIS, Long.parseLong(value));
+                        } catch (NumberFormatException e) {
+                            // Ignored, as the specification asks.
+                        }
+                        break;
+                    default:
+                        // Comments, used as keep-alives, and event names.
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply an event to the lectures of the subscribed users it concerns, then tell their listeners.
+     * @param id Id of the event, or null.
+     * @param data Data of the event: the lecture in its new state.
+     */
+    private void dispatch(String id, String data) {
+        Lecture lecture;
+        try {
+            lecture = JsonCodec.GSON.fromJson(data, Lecture.class);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            lecture = null; // An event this version does not understand.
+        }
+        if (id != null) {
+            lastEventId = id;
+        }
+        reconnectMillis = MIN_RECONNECT_MILLIS;
+        if (lecture == null) {
+            return;
+        }
+        Set<LectureSubscription> concerned = new LinkedHashSet<LectureSubscription>();
+        for (String username : new String[] {lecture.getTutorName(), lecture.getStudentName()}) {
+            List<LectureSubscription> ofUser = username == null ? null : subscriptions.get(username);
+            if (ofUser != null) {
+                concerned.addAll(ofUser);
+            }
+        }
+        LectureEvent event = new LectureEvent(id, lecture);
+        Map<User, Boolean> applied = new IdentityHashMap<User, Boolean>();
+        for (LectureSubscription subscription : concerned) {
+            if (applied.put(subscription.getUser(), Boolean.TRUE) == null) {
+                subscription.getUser().getLectureStore().update(lecture.getLectureId(), lecture.getState());
+            }
+            try {
+                subscription.getListener().onLectureEvent(event);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the others, nor the stream.
+            }
+        }
+    }
+}
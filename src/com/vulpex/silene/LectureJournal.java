@@ -0,0 +1,299 @@
+package com.vulpex.silene;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of queued writes. Each record is framed with its
+ * length and a CRC32 so a record torn by a crash is detected and dropped on
+ * replay. Appends are written and fsynced in batches by a single writer
+ * thread: every append waiting when a batch starts shares one fsync. A batch
+ * that fails is cut off the journal, so later appends do not land behind a
+ * torn record and get dropped on replay.
+ */
+final class LectureJournal implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_BATCH = 1024;
+    private static final long COMPACT_THRESHOLD = 1 << 20;
+    private static final Gson GSON = new Gson();
+    private final Path path;
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<Append>();
+    private final Thread writer;
+    private final List<PendingWrite> pendingAtOpen;
+    private FileChannel channel;
+    private long durableSize; // Size of the journal up to its last fsynced batch.
+    private volatile boolean closed;
+    private long lastSequence;
+
+    /**
+     * A write or the completion of a write, as stored in the journal.
+     */
+    private static final class Record {
+        long seq;
+        String op;
+        String key;
+        String body;
+        boolean done;
+    }
+
+    /**
+     * An append waiting for the writer, or a request to truncate the journal if payload is null.
+     */
+    private static final class Append {
+        final byte[] payload;
+        final CompletableFuture<Void> written = new CompletableFuture<Void>();
+
+        Append(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Open a journal, dropping a torn record at its end and compacting it to
+     * the writes not completed yet.
+     * @param path Path of the journal file, created if missing.
+     * @throws IOException If the journal cannot be read or written.
+     */
+    LectureJournal(Path path) throws IOException {
+        this.path = path;
+        this.pendingAtOpen = replay();
+        rewrite(pendingAtOpen);
+        this.writer = new Thread(this::writeLoop, "silene-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Get the writes journalled but not completed when the journal was opened.
+     * @return the writes in journal order.
+     */
+    List<PendingWrite> getPending() {
+        return pendingAtOpen;
+    }
+
+    /**
+     * Get the last sequence number used in the journal.
+     * @return the sequence number, 0 if the journal was empty.
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Read the journal up to its first torn or corrupt record.
+     * @return the writes not completed, in journal order.
+     * @throws IOException If the journal cannot be read.
+     */
+    private List<PendingWrite> replay() throws IOException {
+        Map<Long, PendingWrite> pending = new TreeMap<Long, PendingWrite>();
+        if (Files.exists(path)) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (true) {
+                    header.clear();
+                    if (readFully(in, header) < HEADER_SIZE) {
+                        break;
+                    }
+                    header.flip();
+                    int length = header.getInt();
+                    int crc = header.getInt();
+                    if (length <= 0 || length > in.size() - in.position()) {
+                        break; // Torn at the end.
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(in, payload);
+                    CRC32 checksum = new CRC32();
+                    checksum.update(payload.array());
+                    if ((int) checksum.getValue() != crc) {
+                        break;
+                    }
+                    Record record;
+                    try {
+                        record = GSON.fromJson(new String(payload.array(), StandardCharsets.UTF_8), Record.class);
+                    } catch (JsonParseException e) {
+                        break;
+                    }
+                    lastSequence = Math.max(lastSequence, record.seq);
+                    if (record.done) {
+                        pending.remove(record.seq);
+                    } else {
+                        pending.put(record.seq, new PendingWrite(record.seq, WriteOperation.valueOf(record.op),
+                                record.key, record.body));
+                    }
+                }
+            }
+        }
+        return new ArrayList<PendingWrite>(pending.values());
+    }
+
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Replace the journal with one holding only the given writes.
+     * @param pending The writes to keep.
+     * @throws IOException If the journal cannot be written.
+     */
+    private void rewrite(List<PendingWrite> pending) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (PendingWrite write : pending) {
+                writeRecord(out, encode(write.getSequence(), write.getOperation(), write.getKey(), write.getBody(), false));
+            }
+            out.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        durableSize = channel.size();
+    }
+
+    private static byte[] encode(long sequence, WriteOperation operation, String key, String body, boolean done) {
+        Record record = new Record();
+        record.seq = sequence;
+        record.op = operation == null ? null : operation.name();
+        record.key = key;
+        record.body = body;
+        record.done = done;
+        return GSON.toJson(record).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeRecord(FileChannel out, byte[] payload) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Append a write to the journal.
+     * @param write The write.
+     * @return a future that completes once the write is durable.
+     */
+    CompletableFuture<Void> append(PendingWrite write) {
+        return enqueue(encode(write.getSequence(), write.getOperation(), write.getKey(), write.getBody(), false));
+    }
+
+    /**
+     * Record that a write was completed, and need not be replayed.
+     * @param sequence Sequence number of the write.
+     * @return a future that completes once the completion is durable.
+     */
+    CompletableFuture<Void> complete(long sequence) {
+        return enqueue(encode(sequence, null, null, null, true));
+    }
+
+    /**
+     * Empty the journal if it grew large. Only call this when every write
+     * appended so far is completed.
+     */
+    void compact() {
+        enqueue(null);
+    }
+
+    private CompletableFuture<Void> enqueue(byte[] payload) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Journal is closed."));
+        }
+        Append append = new Append(payload);
+        appends.add(append);
+        return append.written;
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<Append>();
+        while (!closed || !appends.isEmpty()) {
+            try {
+                Append first = appends.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                appends.drainTo(batch, MAX_BATCH - 1);
+                for (Append append : batch) {
+                    if (append.payload != null) {
+                        writeRecord(channel, append.payload);
+                    } else if (channel.size() > COMPACT_THRESHOLD) {
+                        channel.truncate(0);
+                        durableSize = 0; // The records before are all completed.
+                    }
+                }
+                channel.force(false);
+                durableSize = channel.size();
+                for (Append append : batch) {
+                    append.written.complete(null);
+                }
+            } catch (IOException e) {
+                for (Append append : batch) {
+                    append.written.completeExceptionally(e);
+                }
+                discardFailedBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Cut what a failed batch may have written off the journal. If the
+     * journal cannot be truncated, it is reopened from its records up to the
+     * first torn one.
+     */
+    private void discardFailedBatch() {
+        try {
+            channel.truncate(durableSize);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.close();
+                rewrite(replay());
+            } catch (IOException again) {
+                // The next batch fails as well, and tries again.
+            }
+        }
+    }
+
+    /**
+     * Write the appends already queued and close the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,14 @@
+package com.vulpex.silene;
+
+/**
+ * Told about changes to the lectures of a user as the server pushes them,
+ * such as a lecture being requested or confirmed.
+ */
+public interface LectureListener {
+    /**
+     * Called on the thread reading the event stream, after the change has been
+     * applied to the lectures of the user. Listeners should return quickly.
+     * @param event The change.
+     */
+    void onLectureEvent(LectureEvent event);
+}
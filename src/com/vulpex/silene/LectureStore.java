@@ -0,0 +1,124 @@
+package com.vulpex.silene;
+
+import java.lang.ref.WeakReference;
+import java.net.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of the lectures of a user, kept in a {@link LectureTable}. The
+ * Lecture objects handed out by {@link #lectures()} are remembered weakly, and
+ * fresh tables update their states, so they stay current instead of being
+ * replaced while the caller holds them. A table handed out is never changed:
+ * a state change replaces the table of the store with a changed copy.
+ */
+final class LectureStore {
+    private final CacheValidators validators = new CacheValidators();
+    private LectureTable table = LectureTable.EMPTY;
+    private final Map<Integer, WeakReference<Lecture>> handedOut = new HashMap<Integer, WeakReference<Lecture>>();
+
+    CacheValidators getValidators() {
+        return validators;
+    }
+
+    synchronized LectureTable getTable() {
+        return table;
+    }
+
+    /**
+     * Replace the lectures of the store with a fresh table, and the validators
+     * with those it came with. Lectures handed out earlier that are still in
+     * the table, on the same date, get their new state.
+     * @param fresh The lectures as listed by the server.
+     * @param headers Headers of the response the table came from.
+     * @return the table of the store.
+     */
+    synchronized LectureTable merge(LectureTable fresh, HttpHeaders headers) {
+        table = fresh;
+        validators.update(headers);
+        for (Iterator<WeakReference<Lecture>> it = handedOut.values().iterator(); it.hasNext(); ) {
+            Lecture lecture = it.next().get();
+            int row = lecture == null ? -1 : fresh.rowOf(lecture.getLectureId());
+            if (row >= 0 && fresh.matches(row, lecture)) {
+                lecture.setState(fresh.stateAt(row));
+            } else {
+                it.remove();
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the lectures of the store, reusing the Lecture objects handed out earlier.
+     * @return a new list of the lectures.
+     */
+    synchronized List<Lecture> lectures() {
+        List<Lecture> lectures = new ArrayList<Lecture>(table.size());
+        for (int row = 0; row < table.size(); row++) {
+            WeakReference<Lecture> reference = handedOut.get(table.idAt(row));
+            Lecture lecture = reference == null ? null : reference.get();
+            if (lecture == null || !table.matches(row, lecture)) {
+                lecture = table.lectureAt(row);
+                handedOut.put(lecture.getLectureId(), new WeakReference<Lecture>(lecture));
+            }
+            lectures.add(lecture);
+        }
+        return lectures;
+    }
+
+    /**
+     * Fill an empty store with lectures saved earlier, along with the
+     * validators of the list they came from, so the next fetch only
+     * downloads the list again if it changed.
+     * @param saved The saved lectures.
+     * @param etag ETag of the saved list, or null.
+     * @param lastModified Last-Modified date of the saved list, or null.
+     */
+    synchronized void restore(LectureTable saved, String etag, String lastModified) {
+        if (table.size() > 0) {
+            return;
+        }
+        table = saved;
+        validators.restore(etag, lastModified);
+    }
+
+    /**
+     * Change the state of a stored lecture, as told by the server.
+     * @param lectureId Id of the lecture.
+     * @param state The new state.
+     */
+    synchronized void update(int lectureId, LectureState state) {
+        if (state == LectureState.CONFIRMED) {
+            confirm(lectureId); // As when the user confirms it.
+            return;
+        }
+        int row = table.rowOf(lectureId);
+        if (row >= 0) {
+            table = table.withState(row, state);
+        }
+        WeakReference<Lecture> reference = handedOut.get(lectureId);
+        Lecture lecture = reference == null ? null : reference.get();
+        if (lecture != null) {
+            lecture.setState(state);
+        }
+    }
+
+    /**
+     * Mark a stored lecture as confirmed.
+     * @param lectureId Id of the lecture.
+     */
+    synchronized void confirm(int lectureId) {
+        int row = table.rowOf(lectureId);
+        if (row >= 0) {
+            table = table.withState(row, LectureState.CONFIRMED);
+        }
+        WeakReference<Lecture> reference = handedOut.get(lectureId);
+        Lecture lecture = reference == null ? null : reference.get();
+        if (lecture != null) {
+            lecture.confirmLecture();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.vulpex.silene;
+
+/**
+ * A subscription to the lecture changes of a user, returned by
+ * {@link User#subscribeLectures(LectureListener)}.
+ */
+public class LectureSubscription implements AutoCloseable {
+    private final LectureEventStream stream;
+    private final User user;
+    private final LectureListener listener;
+
+    LectureSubscription(LectureEventStream stream, User user, LectureListener listener) {
+        this.stream = stream;
+        this.user = user;
+        this.listener = listener;
+    }
+
+    User getUser() {
+        return user;
+    }
+
+    LectureListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Stop receiving changes. The event stream is closed with the last subscription of its client.
+     */
+    @Override
+    public void close() {
+        stream.unsubscribe(this);
+    }
+}
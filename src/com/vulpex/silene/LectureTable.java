@@ -0,0 +1,374 @@
+package com.vulpex.silene;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The lectures of a user stored column by column in primitive arrays: ids,
+ * epoch days and state codes, with tutor and student names stored once and
+ * referred to by index. Rows are indexed by date, by tutor and by student,
+ * so queries only visit the rows they return.
+ *
+ * The lectures returned by queries are created on demand; the states they
+ * hold are those of the table at the time of the query.
+ */
+public final class LectureTable {
+    static final LectureTable EMPTY = new Builder().build();
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final LectureState[] STATES = LectureState.values();
+    private final int size;
+    private final int[] ids;
+    private final int[] days;
+    private final byte[] states;
+    private final int[] tutors;
+    private final int[] students;
+    private final String[] names;
+    private final Map<String, Integer> nameRefs;
+    private final int[] byDay;
+    private final int[] byId;
+    private final int[] tutorStart;
+    private final int[] tutorRows;
+    private final int[] studentStart;
+    private final int[] studentRows;
+
+    /**
+     * Collects the rows of a table, interning names as they are added.
+     */
+    static final class Builder {
+        private int size;
+        private int[] ids = new int[16];
+        private int[] days = new int[16];
+        private byte[] states = new byte[16];
+        private int[] tutors = new int[16];
+        private int[] students = new int[16];
+        private final List<String> names = new ArrayList<String>();
+        private final Map<String, Integer> nameRefs = new HashMap<String, Integer>();
+
+        /**
+         * Add a lecture.
+         * @param lectureId Id of the lecture.
+         * @param tutor Username of the tutor, or null.
+         * @param student Username of the student, or null.
+         * @param state State of the lecture, or null.
+         * @param date The date of the lecture, or null.
+         * @return this builder.
+         */
+        Builder add(int lectureId, String tutor, String student, LectureState state, LocalDate date) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                days = Arrays.copyOf(days, capacity);
+                states = Arrays.copyOf(states, capacity);
+                tutors = Arrays.copyOf(tutors, capacity);
+                students = Arrays.copyOf(students, capacity);
+            }
+            ids[size] = lectureId;
+            days[size] = date == null ? NO_DATE : Math.toIntExact(date.toEpochDay());
+            states[size] = encode(state);
+            tutors[size] = intern(tutor);
+            students[size] = intern(student);
+            size++;
+            return this;
+        }
+
+        private int intern(String name) {
+            if (name == null) {
+                return -1;
+            }
+            Integer ref = nameRefs.get(name);
+            if (ref == null) {
+                ref = names.size();
+                names.add(name);
+                nameRefs.put(name, ref);
+            }
+            return ref;
+        }
+
+        LectureTable build() {
+            return new LectureTable(this);
+        }
+    }
+
+    private LectureTable(Builder builder) {
+        size = builder.size;
+        ids = Arrays.copyOf(builder.ids, size);
+        days = Arrays.copyOf(builder.days, size);
+        states = Arrays.copyOf(builder.states, size);
+        tutors = Arrays.copyOf(builder.tutors, size);
+        students = Arrays.copyOf(builder.students, size);
+        names = builder.names.toArray(new String[0]);
+        nameRefs = new HashMap<String, Integer>(builder.nameRefs);
+        byDay = sortedRows(days);
+        byId = sortedRows(ids);
+        tutorStart = new int[names.length + 1];
+        tutorRows = groupRows(tutors, tutorStart);
+        studentStart = new int[names.length + 1];
+        studentRows = groupRows(students, studentStart);
+    }
+
+    /**
+     * Copy a table, so states can be changed in the copy only.
+     * @param table The table to copy.
+     */
+    private LectureTable(LectureTable table) {
+        size = table.size;
+        ids = table.ids;
+        days = table.days;
+        states = table.states.clone();
+        tutors = table.tutors;
+        students = table.students;
+        names = table.names;
+        nameRefs = table.nameRefs;
+        byDay = table.byDay;
+        byId = table.byId;
+        tutorStart = table.tutorStart;
+        tutorRows = table.tutorRows;
+        studentStart = table.studentStart;
+        studentRows = table.studentRows;
+    }
+
+    LectureTable copy() {
+        return new LectureTable(this);
+    }
+
+    /**
+     * Sort the rows of a table by a column, keeping rows with equal values in order.
+     * @param column The column.
+     * @return the rows in the order of the column.
+     */
+    private int[] sortedRows(int[] column) {
+        long[] keyed = new long[size];
+        for (int row = 0; row < size; row++) {
+            keyed[row] = ((long) column[row] << 32) | row;
+        }
+        Arrays.sort(keyed);
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) keyed[i];
+        }
+        return rows;
+    }
+
+    /**
+     * Group the rows of a table by a name column, with a counting sort.
+     * @param column The name column.
+     * @param start Filled with the offset of the rows of each name, and the end of the last.
+     * @return the rows grouped by name, in order within a name.
+     */
+    private int[] groupRows(int[] column, int[] start) {
+        for (int row = 0; row < size; row++) {
+            if (column[row] >= 0) {
+                start[column[row] + 1]++;
+            }
+        }
+        for (int name = 0; name < names.length; name++) {
+            start[name + 1] += start[name];
+        }
+        int[] next = Arrays.copyOf(start, names.length);
+        int[] rows = new int[start[names.length]];
+        for (int row = 0; row < size; row++) {
+            if (column[row] >= 0) {
+                rows[next[column[row]]++] = row;
+            }
+        }
+        return rows;
+    }
+
+    private static byte encode(LectureState state) {
+        return (byte) (state == null ? 0 : state.ordinal() + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int idAt(int row) { return ids[row]; }
+    String tutorAt(int row) { return tutors[row] < 0 ? null : names[tutors[row]]; }
+    String studentAt(int row) { return students[row] < 0 ? null : names[students[row]]; }
+    LectureState stateAt(int row) { return states[row] == 0 ? null : STATES[states[row] - 1]; }
+    LocalDate dateAt(int row) { return days[row] == NO_DATE ? null : LocalDate.ofEpochDay(days[row]); }
+
+    /**
+     * Create the lecture of a row.
+     * @param row The row.
+     * @return a new Lecture.
+     */
+    Lecture lectureAt(int row) {
+        LocalDate date = dateAt(row);
+        return new Lecture(ids[row], tutorAt(row), studentAt(row), stateAt(row), date == null ? null : Date.valueOf(date));
+    }
+
+    /**
+     * Check if a row holds a lecture created from another row of the same lecture.
+     * @param row The row.
+     * @param lecture The lecture.
+     * @return True if the lecture has the id and date of the row.
+     */
+    boolean matches(int row, Lecture lecture) {
+        LocalDate date = lecture.getScheduledDate() == null ? null : Availability.toLocalDate(lecture.getScheduledDate());
+        return lecture.getLectureId() == ids[row]
+                && (date == null ? days[row] == NO_DATE : date.toEpochDay() == days[row]);
+    }
+
+    /**
+     * Find the row of a lecture.
+     * @param lectureId Id of the lecture.
+     * @return the row, or -1 if the lecture is not in the table.
+     */
+    int rowOf(int lectureId) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = ids[byId[middle]];
+            if (id < lectureId) {
+                low = middle + 1;
+            } else if (id > lectureId) {
+                high = middle - 1;
+            } else {
+                return byId[middle];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy the table with the state of a row changed. The table itself is left
+     * as is, as it may be in use by the callers it was handed out to.
+     * @param row The row.
+     * @param state The new state.
+     * @return the changed copy.
+     */
+    LectureTable withState(int row, LectureState state) {
+        LectureTable changed = new LectureTable(this);
+        changed.states[row] = encode(state);
+        return changed;
+    }
+
+    /**
+     * Get a lecture by its id.
+     * @param lectureId Id of the lecture.
+     * @return the lecture, or null if it is not in the table.
+     */
+    public Lecture get(int lectureId) {
+        int row = rowOf(lectureId);
+        return row < 0 ? null : lectureAt(row);
+    }
+
+    /**
+     * Get every lecture, in the order the server listed them.
+     * @return the lectures.
+     */
+    public List<Lecture> getAll() {
+        List<Lecture> lectures = new ArrayList<Lecture>(size);
+        for (int row = 0; row < size; row++) {
+            lectures.add(lectureAt(row));
+        }
+        return lectures;
+    }
+
+    /**
+     * Count the lectures in a state.
+     * @param state The state, or null to count every lecture.
+     * @return the number of lectures.
+     */
+    public int count(LectureState state) {
+        if (state == null) {
+            return size;
+        }
+        byte code = encode(state);
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (states[row] == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the lectures scheduled between two dates.
+     * @param state State of the lectures, or null for any state.
+     * @param from First day of the range, inclusive.
+     * @param to Last day of the range, inclusive.
+     * @return the lectures, ordered by date.
+     */
+    public List<Lecture> between(LectureState state, java.util.Date from, java.util.Date to) {
+        long first = Availability.toLocalDate(from).toEpochDay();
+        long last = Availability.toLocalDate(to).toEpochDay();
+        List<Lecture> lectures = new ArrayList<Lecture>();
+        for (int i = firstOnOrAfter(first); i < size && days[byDay[i]] <= last; i++) {
+            addIfIn(lectures, byDay[i], state);
+        }
+        return lectures;
+    }
+
+    /**
+     * Get the lectures of a tutor.
+     * @param tutor Username of the tutor.
+     * @param state State of the lectures, or null for any state.
+     * @return the lectures, in the order the server listed them.
+     */
+    public List<Lecture> withTutor(String tutor, LectureState state) {
+        return inGroup(tutor, tutorStart, tutorRows, state);
+    }
+
+    /**
+     * Get the lectures of a student.
+     * @param student Username of the student.
+     * @param state State of the lectures, or null for any state.
+     * @return the lectures, in the order the server listed them.
+     */
+    public List<Lecture> withStudent(String student, LectureState state) {
+        return inGroup(student, studentStart, studentRows, state);
+    }
+
+    /**
+     * Count the lectures of a tutor, in any state.
+     * @param tutor Username of the tutor.
+     * @return the number of lectures.
+     */
+    int countWithTutor(String tutor) {
+        Integer ref = nameRefs.get(tutor);
+        return ref == null ? 0 : tutorStart[ref + 1] - tutorStart[ref];
+    }
+
+    private List<Lecture> inGroup(String name, int[] start, int[] rows, LectureState state) {
+        List<Lecture> lectures = new ArrayList<Lecture>();
+        Integer ref = nameRefs.get(name);
+        if (ref != null) {
+            for (int i = start[ref]; i < start[ref + 1]; i++) {
+                addIfIn(lectures, rows[i], state);
+            }
+        }
+        return lectures;
+    }
+
+    private void addIfIn(List<Lecture> lectures, int row, LectureState state) {
+        if (state == null || states[row] == encode(state)) {
+            lectures.add(lectureAt(row));
+        }
+    }
+
+    /**
+     * Find the first position in the date order on or after a day.
+     * @param day The epoch day.
+     * @return the position, or the size of the table if every lecture is earlier.
+     */
+    private int firstOnOrAfter(long day) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[byDay[middle]] < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,88 @@
+package com.vulpex.silene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the node each request of a Server is sent to. Only healthy nodes are
+ * picked; if every node is unhealthy, all of them are considered again so
+ * that requests still have a chance to go through.
+ */
+final class LoadBalancer {
+    private final List<ServerNode> nodes;
+    private final BalancingStrategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    LoadBalancer(List<ServerNode> nodes, BalancingStrategy strategy) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<ServerNode>(nodes));
+        this.strategy = strategy;
+    }
+
+    List<ServerNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Pick the node to send a request to.
+     * @param avoid Node to avoid if another one is available, may be null.
+     * @return the picked node.
+     */
+    ServerNode select(ServerNode avoid) {
+        List<ServerNode> candidates = new ArrayList<ServerNode>(nodes.size());
+        for (ServerNode node : nodes) {
+            if (node.isHealthy() && node != avoid) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (ServerNode node : nodes) {
+                if (node.isHealthy()) {
+                    candidates.add(node);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(nodes);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        switch (strategy) {
+            case LEAST_OUTSTANDING:
+                ServerNode least = candidates.get(0);
+                for (ServerNode node : candidates) {
+                    if (node.getOutstanding() < least.getOutstanding()) {
+                        least = node;
+                    }
+                }
+                return least;
+            case LATENCY_WEIGHTED:
+                double fastest = Double.MAX_VALUE;
+                for (ServerNode node : candidates) {
+                    if (node.getLatencyNanos() > 0) {
+                        fastest = Math.min(fastest, node.getLatencyNanos());
+                    }
+                }
+                double[] weights = new double[candidates.size()];
+                double total = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    double latency = candidates.get(i).getLatencyNanos();
+                    weights[i] = 1.0 / (latency > 0 ? latency : fastest); // Untried nodes count as the fastest.
+                    total += weights[i];
+                }
+                double pick = ThreadLocalRandom.current().nextDouble(total);
+                for (int i = 0; i < weights.length; i++) {
+                    pick -= weights[i];
+                    if (pick < 0) {
+                        return candidates.get(i);
+                    }
+                }
+                return candidates.get(weights.length - 1);
+            default:
+                return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.vulpex.silene;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Weighted criteria tutors are ranked by. Each criterion scores a tutor from
+ * 0 to 1, and a tutor's score is the weighted sum of its criteria scores.
+ *
+ * <pre>
+ * new MatchCriteria()
+ *         .expertise("Mathematics", 3)
+ *         .weekdays(2, DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY)
+ *         .history(1);
+ * </pre>
+ */
+public class MatchCriteria {
+    String expertise;
+    double expertiseWeight;
+    String locality;
+    double localityWeight;
+    int weekdayMask;
+    double weekdaysWeight;
+    double historyWeight;
+    final List<TutorCriterion> custom = new ArrayList<TutorCriterion>();
+    final List<Double> customWeights = new ArrayList<Double>();
+
+    /**
+     * Prefer tutors of an expertise: 1 if the expertise of the tutor is the
+     * wished one, 0.5 if it contains it, ignoring case, else 0.
+     * @param expertise The wished expertise.
+     * @param weight Weight of the criterion.
+     * @return these criteria.
+     */
+    public MatchCriteria expertise(String expertise, double weight) {
+        this.expertise = expertise.toLowerCase();
+        this.expertiseWeight = weight;
+        return this;
+    }
+
+    /**
+     * Prefer tutors of a locality: 1 if the tutor is in it, ignoring case, else 0.
+     * It only changes a ranking of tutors from several localities; the tutors
+     * {@link Student#findBestTutors(MatchCriteria, int)} ranks are all of it.
+     * @param locality The wished locality.
+     * @param weight Weight of the criterion.
+     * @return these criteria.
+     */
+    public MatchCriteria locality(String locality, double weight) {
+        this.locality = locality;
+        this.localityWeight = weight;
+        return this;
+    }
+
+    /**
+     * Prefer tutors available on some days of the week: the share of the
+     * wished days the tutor is available on.
+     * @param weight Weight of the criterion.
+     * @param days The wished days.
+     * @return these criteria.
+     */
+    public MatchCriteria weekdays(double weight, DayOfWeek... days) {
+        this.weekdayMask = Availability.weekdayMask(days);
+        this.weekdaysWeight = weight;
+        return this;
+    }
+
+    /**
+     * Prefer tutors the student had lectures with: the number of lectures of
+     * the student with the tutor, relative to the tutor it had the most with.
+     * @param weight Weight of the criterion.
+     * @return these criteria.
+     */
+    public MatchCriteria history(double weight) {
+        this.historyWeight = weight;
+        return this;
+    }
+
+    /**
+     * Add a criterion of your own.
+     * @param criterion The criterion.
+     * @param weight Weight of the criterion.
+     * @return these criteria.
+     */
+    public MatchCriteria custom(TutorCriterion criterion, double weight) {
+        custom.add(criterion);
+        customWeights.add(weight);
+        return this;
+    }
+}
@@ -0,0 +1,24 @@
+package com.vulpex.silene;
+
+/**
+ * Receives a record of every request sent to the server, for example to
+ * export it to a metrics system. Listeners are called on the thread that
+ * completes the request, before the caller sees the result, so they must be
+ * fast and must not block. Exceptions thrown by a listener are ignored.
+ */
+public interface MetricsListener {
+    /**
+     * Called once a request is complete, after its retries and after its
+     * response is decoded.
+     * @param method HTTP Method of the request.
+     * @param api_uri URI of the endpoint, EXCLUDING the server ip.
+     * @param statusCode Status code of the last response, or 0 if none was received.
+     * @param latencyNanos Time from sending the request to completing it, in nanoseconds.
+     * @param bytesSent Size of the request body in bytes.
+     * @param bytesReceived Size of the response bodies received in bytes, across attempts.
+     * @param attempts Number of attempts made, including the first one.
+     * @param error The exception the request failed with, or null if it succeeded.
+     */
+    void onRequest(String method, String api_uri, int statusCode, long latencyNanos, long bytesSent,
+                   long bytesReceived, int attempts, Throwable error);
+}
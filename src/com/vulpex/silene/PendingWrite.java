@@ -0,0 +1,41 @@
+package com.vulpex.silene;
+
+/**
+ * A write accepted into a {@link WriteBehindQueue} and not yet applied by the server.
+ */
+public class PendingWrite {
+    private final long sequence;
+    private final WriteOperation operation;
+    private final String key;
+    private final String body;
+
+    /**
+     * Initialise a PendingWrite.
+     * @param sequence Position of the write in the journal.
+     * @param operation The operation.
+     * @param key Writes with the same key are sent in order, one at a time.
+     * @param body JSON body of the request.
+     */
+    PendingWrite(long sequence, WriteOperation operation, String key, String body) {
+        this.sequence = sequence;
+        this.operation = operation;
+        this.key = key;
+        this.body = body;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public WriteOperation getOperation() {
+        return operation;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
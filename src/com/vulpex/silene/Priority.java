@@ -0,0 +1,11 @@
+package com.vulpex.silene;
+
+/**
+ * Defines the order requests waiting for admission are sent in.
+ * INTERACTIVE requests, such as logins and lecture requests, are sent before any waiting BULK request.
+ * BULK requests, such as batch lookups, wait while interactive requests are waiting.
+ */
+public enum Priority {
+    INTERACTIVE,
+    BULK
+}
@@ -0,0 +1,52 @@
+package com.vulpex.silene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of the requests sent to a server, kept per HTTP method and
+ * endpoint. Every Server records into its own RequestMetrics.
+ */
+public class RequestMetrics implements MetricsListener {
+    private final Map<String, Map<String, EndpointStats>> endpoints =
+            new ConcurrentHashMap<String, Map<String, EndpointStats>>();
+
+    @Override
+    public void onRequest(String method, String api_uri, int statusCode, long latencyNanos, long bytesSent,
+                          long bytesReceived, int attempts, Throwable error) {
+        Map<String, EndpointStats> byUri = endpoints.get(method);
+        if (byUri == null) {
+            byUri = endpoints.computeIfAbsent(method, key -> new ConcurrentHashMap<String, EndpointStats>());
+        }
+        EndpointStats stats = byUri.get(api_uri);
+        if (stats == null) {
+            stats = byUri.computeIfAbsent(api_uri, key -> new EndpointStats(method, api_uri));
+        }
+        stats.record(statusCode, latencyNanos, bytesSent, bytesReceived, attempts, error);
+    }
+
+    /**
+     * Get the statistics of an endpoint.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint.
+     * @return the statistics, or null if no such request was sent.
+     */
+    public EndpointStats getEndpoint(String method, String api_uri) {
+        Map<String, EndpointStats> byUri = endpoints.get(method);
+        return byUri == null ? null : byUri.get(api_uri);
+    }
+
+    /**
+     * Get the statistics of every endpoint a request was sent to.
+     * @return the statistics of each endpoint.
+     */
+    public List<EndpointStats> getEndpoints() {
+        List<EndpointStats> stats = new ArrayList<EndpointStats>();
+        for (Map<String, EndpointStats> byUri : endpoints.values()) {
+            stats.addAll(byUri.values());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,116 @@
+package com.vulpex.silene;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of a single request while it is in flight, reported to the
+ * metrics listeners of the server once it completes.
+ */
+final class RequestTrace {
+    private final String method;
+    private final String api_uri;
+    private final long startNanos = System.nanoTime();
+    private final long bytesSent;
+    private final CancellableCall call;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private volatile int attempts = 1;
+    private volatile int statusCode;
+
+    /**
+     * Initialise a RequestTrace.
+     * @param method HTTP Method of the request.
+     * @param api_uri URI of the endpoint.
+     * @param bytesSent Size of the request body as sent.
+     * @param call The call the request is made in, whose cancellation aborts the request.
+     */
+    RequestTrace(String method, String api_uri, long bytesSent, CancellableCall call) {
+        this.method = method;
+        this.api_uri = api_uri;
+        this.bytesSent = bytesSent;
+        this.call = call;
+    }
+
+    CancellableCall getCall() {
+        return call;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Report the completed request.
+     * @param listener Listener to report to.
+     * @param latencyNanos Latency of the request.
+     * @param error The exception the request failed with, or null.
+     */
+    void report(MetricsListener listener, long latencyNanos, Throwable error) {
+        listener.onRequest(method, api_uri, statusCode, latencyNanos, bytesSent, bytesReceived.get(), attempts, error);
+    }
+
+    /**
+     * Wrap a body handler so that the bytes of the bodies it reads are counted.
+     * @param bodyHandler The body handler.
+     * @param <T> Type of the response body.
+     * @return the counting body handler.
+     */
+    <T> HttpResponse.BodyHandler<T> counting(HttpResponse.BodyHandler<T> bodyHandler) {
+        return responseInfo -> new CountingSubscriber<T>(bodyHandler.apply(responseInfo), bytesReceived);
+    }
+
+    /**
+     * Passes a response body through to another subscriber, counting its bytes.
+     */
+    private static final class CountingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final AtomicLong counter;
+
+        CountingSubscriber(HttpResponse.BodySubscriber<T> delegate, AtomicLong counter) {
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            long bytes = 0;
+            for (int i = 0; i < buffers.size(); i++) {
+                bytes += buffers.get(i).remaining();
+            }
+            counter.addAndGet(bytes);
+            delegate.onNext(buffers);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+}
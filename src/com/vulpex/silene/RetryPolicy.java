@@ -0,0 +1,58 @@
+package com.vulpex.silene;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Defines how often and how patiently a failed request is retried. Only
+ * connection failures and 5xx responses are retried, after a jittered
+ * exponential backoff. Only apply a policy other than {@link #none()} to
+ * requests that are safe to repeat.
+ */
+public class RetryPolicy {
+    private static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    /**
+     * Initialise a RetryPolicy.
+     * @param maxAttempts Maximum number of attempts, including the first one.
+     * @param baseDelay Backoff before the first retry, doubled for each following retry.
+     * @param maxDelay Upper bound of the backoff.
+     */
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt must be allowed.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * Get the policy that never retries.
+     * @return the policy with a single attempt.
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the backoff before a retry, chosen uniformly at random up to the
+     * exponential bound so that clients do not retry in lockstep.
+     * @param attempt Number of attempts made so far, starting from 1.
+     * @return the backoff in nanoseconds.
+     */
+    long backoffNanos(int attempt) {
+        long bound = baseDelayNanos << Math.min(attempt - 1, 30);
+        if (bound <= 0 || bound > maxDelayNanos) {
+            bound = maxDelayNanos;
+        }
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
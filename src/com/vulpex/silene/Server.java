@@ -1,16 +1,39 @@
 package com.vulpex.silene;
 
 
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.*;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
@@ -21,6 +44,10 @@ class ServerException extends Exception {
     ServerException(String s) {
         super(s);
     }
+
+    ServerException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
 
 
@@ -72,76 +99,948 @@ class InvalidUserSessionException extends Exception {
 }
 
 /**
- * Defines the configuration for the server. This is a singleton, so each app
- * may only have one server configuration and therefore connection.
+ * A request was not sent because too many requests were waiting to be sent.
+ */
+class RequestRejectedException extends ServerException {
+    private static final long serialVersionUID = 1L;
+
+    RequestRejectedException(String s) { super(s); }
+}
+
+/**
+ * The server could not be reached or failed to answer, so the same request
+ * may succeed later.
+ */
+class ServerUnavailableException extends ServerException {
+    private static final long serialVersionUID = 1L;
+
+    ServerUnavailableException(String s) { super(s); }
+
+    ServerUnavailableException(String s, Throwable cause) { super(s, cause); }
+}
+
+/**
+ * Defines the connection to the server. Each {@link SileneClient} owns its own
+ * Server; the static methods of this class configure the server of the
+ * default client, set up by {@link #setUpServer(String, String)}.
+ *
+ * All requests go through a single shared {@link HttpClient}, which pools and
+ * reuses connections and negotiates HTTP/2 where the server supports it.
+ * A server may consist of several replicas, requests are then spread across
+ * the healthy ones.
  */
 public class Server {
-    private final String url;
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+    private static final int EJECT_AFTER_FAILED_PROBES = 2;
+    private final LoadBalancer balancer;
     private final String api_key;
-    private static Server instance;
+    private final HttpClient client;
+    private final Duration readTimeout;
+    private final Map<String, RetryPolicy> retryPolicies = new ConcurrentHashMap<String, RetryPolicy>();
+    private volatile CircuitBreaker circuitBreaker = new CircuitBreaker(0, 0);
+    private volatile Duration hedgeDelay;
+    private ScheduledExecutorService healthChecker;
+    private final RequestMetrics metrics = new RequestMetrics();
+    private final List<MetricsListener> metricsListeners = new CopyOnWriteArrayList<MetricsListener>();
+    private final Set<String> coalescedEndpoints = ConcurrentHashMap.newKeySet();
+    private final SingleFlight inFlight = new SingleFlight();
+    private volatile int compressionThreshold = -1;
+    private final AdmissionControl admission = new AdmissionControl();
+    private final Map<String, Priority> priorities = new ConcurrentHashMap<String, Priority>();
 
     /**
      * Initialise a ServerConfig.
-     * @param url URL of the server.
+     * @param urls URLs of the replicas of the server.
      * @param api_key APIKey of the server.
+     * @param connectTimeout Maximum time to wait while establishing a connection.
+     * @param readTimeout Maximum time to wait for a response once a request is sent.
+     * @param strategy How requests are spread across the replicas.
      */
-    private Server(String url, String api_key) throws MalformedURLException {
-        if (!url.contains("://")) {
-            throw new MalformedURLException("URL does not contain proper protocole, ie: http, https etc.");
+    Server(List<String> urls, String api_key, Duration connectTimeout, Duration readTimeout,
+                   BalancingStrategy strategy) throws MalformedURLException {
+        if (urls.isEmpty()) {
+            throw new MalformedURLException("At least one URL must be provided.");
+        }
+        List<ServerNode> nodes = new ArrayList<ServerNode>(urls.size());
+        for (String url : urls) {
+            if (!url.contains("://")) {
+                throw new MalformedURLException("URL does not contain proper protocole, ie: http, https etc.");
+            }
+            nodes.add(new ServerNode(url));
         }
-        this.url = url;
+        this.balancer = new LoadBalancer(nodes, strategy);
         this.api_key = api_key;
+        this.readTimeout = readTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.retryPolicies.put("GET", new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(2)));
     }
 
     /**
-     * Set up the Server configuration.
+     * Set up the Server configuration of the default client.
      * @param url URL of the server.
      * @param api_key API key of the client.
      */
     public static void setUpServer(String url, String api_key) throws MalformedURLException {
-        instance = new Server(url, api_key);
+        setUpServer(url, api_key, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Set up the Server configuration of the default client with custom timeouts.
+     * @param url URL of the server.
+     * @param api_key API key of the client.
+     * @param connectTimeout Maximum time to wait while establishing a connection.
+     * @param readTimeout Maximum time to wait for a response once a request is sent.
+     */
+    public static void setUpServer(String url, String api_key, Duration connectTimeout,
+                                   Duration readTimeout) throws MalformedURLException {
+        setUpServer(Collections.singletonList(url), api_key, connectTimeout, readTimeout, BalancingStrategy.ROUND_ROBIN);
     }
 
     /**
-     * Return the global server instance.
+     * Set up the Server configuration of the default client for a server with several replicas.
+     * @param urls URLs of the replicas of the server.
+     * @param api_key API key of the client.
+     * @param connectTimeout Maximum time to wait while establishing a connection.
+     * @param readTimeout Maximum time to wait for a response once a request is sent.
+     * @param strategy How requests are spread across the replicas.
+     */
+    public static void setUpServer(List<String> urls, String api_key, Duration connectTimeout,
+                                   Duration readTimeout, BalancingStrategy strategy) throws MalformedURLException {
+        SileneClient.setDefault(new SileneClient(urls, api_key, connectTimeout, readTimeout, strategy));
+    }
+
+    /**
+     * Return the server of the default client.
      * @return the server instance.
      */
     static Server getServer() throws ServerNotInitialisedException {
-        if (instance == null) {
-            throw new ServerNotInitialisedException("setUpServer must be called first.");
+        return SileneClient.getDefault().getServer();
+    }
+
+    /**
+     * Set how failed requests to an endpoint are retried. GET requests are
+     * retried 3 times by default, every other request is not retried unless
+     * a policy is set for it. Only set policies for requests that are safe to
+     * repeat, such as read only POST endpoints like /api/find_tutors.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint, or null to set the default policy of the method.
+     * @param policy The retry policy.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setRetryPolicy(String method, String api_uri, RetryPolicy policy)
+            throws ServerNotInitialisedException {
+        getServer().putRetryPolicy(method, api_uri, policy);
+    }
+
+    void putRetryPolicy(String method, String api_uri, RetryPolicy policy) {
+        retryPolicies.put(api_uri == null ? method : method + ' ' + api_uri, policy);
+    }
+
+    /**
+     * Limit the rate of the requests made with the API key, so bursts wait on
+     * the client instead of being throttled by the server. Requests beyond the
+     * rate wait, interactive ones first, and are rejected with a ServerException
+     * once the queue of their priority is full.
+     * @param permitsPerSecond Requests sent per second on average, 0 removes the limit.
+     * @param burst Requests that can be sent at once after a quiet period.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setRateLimit(double permitsPerSecond, int burst) throws ServerNotInitialisedException {
+        getServer().useRateLimit(permitsPerSecond, burst);
+    }
+
+    void useRateLimit(double permitsPerSecond, int burst) {
+        admission.setRateLimit(permitsPerSecond, burst);
+    }
+
+    /**
+     * Limit the requests in flight to an endpoint. Further requests to it wait
+     * without holding back requests to other endpoints.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint.
+     * @param maxConcurrent Requests in flight at most, 0 removes the limit.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setConcurrencyLimit(String method, String api_uri, int maxConcurrent)
+            throws ServerNotInitialisedException {
+        getServer().putConcurrencyLimit(method, api_uri, maxConcurrent);
+    }
+
+    void putConcurrencyLimit(String method, String api_uri, int maxConcurrent) {
+        admission.setConcurrencyLimit(method + ' ' + api_uri, maxConcurrent);
+    }
+
+    /**
+     * Set the priority of the requests to an endpoint while they wait to be
+     * sent. Requests are INTERACTIVE unless set otherwise; bulk operations of
+     * the library, such as {@link SileneClient#getUsers(java.util.Collection, int)},
+     * are always BULK.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint, or null to set the priority of the method.
+     * @param priority The priority.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setPriority(String method, String api_uri, Priority priority)
+            throws ServerNotInitialisedException {
+        getServer().putPriority(method, api_uri, priority);
+    }
+
+    void putPriority(String method, String api_uri, Priority priority) {
+        priorities.put(api_uri == null ? method : method + ' ' + api_uri, priority);
+    }
+
+    /**
+     * Bound the number of requests of a priority waiting to be sent; more
+     * requests fail at once with a ServerException. The default is 1024.
+     * @param priority The priority.
+     * @param maxQueued Requests that can wait at most.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setQueueLimit(Priority priority, int maxQueued) throws ServerNotInitialisedException {
+        getServer().putQueueLimit(priority, maxQueued);
+    }
+
+    void putQueueLimit(Priority priority, int maxQueued) {
+        admission.setQueueLimit(priority, maxQueued);
+    }
+
+    /**
+     * Get the queueing of the requests of a priority waiting to be sent.
+     * @param priority The priority.
+     * @return the queue depth, wait times and rejections of the priority.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static AdmissionStats getAdmissionStats(Priority priority) throws ServerNotInitialisedException {
+        return getServer().getAdmission(priority);
+    }
+
+    AdmissionStats getAdmission(Priority priority) {
+        return admission.getStats(priority);
+    }
+
+    /**
+     * Make requests fail fast once the server keeps failing. After
+     * failureThreshold consecutive connection failures or 5xx responses, requests
+     * fail with a ServerException without being sent; after openDuration the
+     * server is probed with {@link #isReady()} and requests resume if it is ready.
+     * @param failureThreshold Consecutive failures that open the circuit, 0 disables the breaker.
+     * @param openDuration How long requests fail fast before the server is probed again.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setCircuitBreaker(int failureThreshold, Duration openDuration)
+            throws ServerNotInitialisedException {
+        getServer().useCircuitBreaker(failureThreshold, openDuration);
+    }
+
+    void useCircuitBreaker(int failureThreshold, Duration openDuration) {
+        circuitBreaker = new CircuitBreaker(failureThreshold, openDuration.toNanos());
+    }
+
+    /**
+     * Hedge GET requests to cut tail latency: when a GET has not been answered
+     * within the delay, the same request is sent again and the first response
+     * wins, the other is cancelled. A hedge is a second attempt, so only GETs
+     * whose retry policy allows more than one attempt are hedged.
+     * @param delay Delay before the hedged request, or null to disable hedging.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setHedgeDelay(Duration delay) throws ServerNotInitialisedException {
+        getServer().useHedgeDelay(delay);
+    }
+
+    void useHedgeDelay(Duration delay) {
+        hedgeDelay = delay;
+    }
+
+    /**
+     * Probe every replica of the server periodically in the background. A
+     * replica that fails consecutive probes stops receiving requests until it
+     * answers a probe again.
+     * @param period Time between two probes of a replica.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void startHealthChecks(Duration period) throws ServerNotInitialisedException {
+        getServer().scheduleHealthChecks(period);
+    }
+
+    synchronized void scheduleHealthChecks(Duration period) {
+        if (healthChecker != null) {
+            throw new IllegalStateException("Health checks already started.");
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "silene-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Warm up the default client so its first requests are not slowed down by
+     * connection setup, class loading and interpreted code. The server is
+     * checked for readiness as {@link #isReady()} does, then each replica is
+     * sent concurrent probes that open pooled connections to it, while the JSON
+     * adapters are built and run on sample payloads. The connections stay in
+     * the pool of the client while idle, up to its keep-alive timeout; over
+     * HTTP/2 a replica needs only one.
+     * @param connections Connections to open to each replica.
+     * @param iterations Times the JSON codecs are run on sample payloads, 0 to only build them.
+     * @return a future that completes once the client is warm, or exceptionally
+     * with the exception {@link #isReady()} throws if the server is not ready.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static CompletableFuture<Void> warmUp(int connections, int iterations)
+            throws ServerNotInitialisedException {
+        return getServer().warm(connections, iterations);
+    }
+
+    CompletableFuture<Void> warm(int connections, int iterations) {
+        CompletableFuture<Void> codecs = CompletableFuture.runAsync(() -> {
+            try {
+                JsonCodec.warmUp(iterations);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        CompletableFuture<Void> pool = readiness(null).thenCompose(ready -> {
+            List<CompletableFuture<Void>> probes = new ArrayList<CompletableFuture<Void>>();
+            for (ServerNode node : balancer.getNodes()) {
+                for (int i = 0; i < connections; i++) {
+                    probes.add(readiness(node));
+                }
+            }
+            return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0]));
+        });
+        return CompletableFuture.allOf(codecs, pool);
+    }
+
+    /**
+     * Gzip request bodies from a given size. Responses are always requested
+     * compressed, but only enable this if the server accepts gzipped bodies.
+     * @param thresholdBytes Size in bytes from which bodies are compressed, or a negative number to never compress.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setRequestCompression(int thresholdBytes) throws ServerNotInitialisedException {
+        getServer().useRequestCompression(thresholdBytes);
+    }
+
+    void useRequestCompression(int thresholdBytes) {
+        compressionThreshold = thresholdBytes;
+    }
+
+    /**
+     * Let concurrent identical requests to an endpoint share one call: while
+     * a request is in flight, the same request with the same authorization
+     * and body waits for its response instead of being sent again, and all
+     * of them get the same decoded result, unmodifiable if it is a list or a
+     * map. Only enable it for endpoints that read, such as /api/find_tutors
+     * or /api/get_user_profile.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint.
+     * @param enabled If requests to the endpoint are coalesced.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     * @throws IllegalArgumentException If the method is PUT, PATCH or DELETE.
+     */
+    public static void setCoalescing(String method, String api_uri, boolean enabled)
+            throws ServerNotInitialisedException {
+        getServer().putCoalescing(method, api_uri, enabled);
+    }
+
+    void putCoalescing(String method, String api_uri, boolean enabled) {
+        if (!enabled) {
+            coalescedEndpoints.remove(method + ' ' + api_uri);
+            return;
+        }
+        if (method.equals("PUT") || method.equals("PATCH") || method.equals("DELETE")) {
+            throw new IllegalArgumentException("Requests that modify the server cannot be coalesced.");
+        }
+        coalescedEndpoints.add(method + ' ' + api_uri);
+    }
+
+    /**
+     * Report every completed request to a listener, in addition to the
+     * statistics kept in {@link #getRequestMetrics()}.
+     * @param listener The listener.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void addMetricsListener(MetricsListener listener) throws ServerNotInitialisedException {
+        getServer().addListener(listener);
+    }
+
+    void addListener(MetricsListener listener) {
+        metricsListeners.add(listener);
+    }
+
+    /**
+     * Stop reporting requests to a listener.
+     * @param listener The listener.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void removeMetricsListener(MetricsListener listener) throws ServerNotInitialisedException {
+        getServer().removeListener(listener);
+    }
+
+    void removeListener(MetricsListener listener) {
+        metricsListeners.remove(listener);
+    }
+
+    /**
+     * Get the latencies, traffic and failures of the requests sent so far, per endpoint.
+     * @return the request statistics of the server.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static RequestMetrics getRequestMetrics() throws ServerNotInitialisedException {
+        return getServer().getMetrics();
+    }
+
+    RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop probing the replicas of the server.
+     */
+    synchronized void stopHealthChecks() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Probe every replica once, ejecting or readmitting it depending on the result.
+     */
+    private void checkHealth() {
+        for (ServerNode node : balancer.getNodes()) {
+            readiness(node).handle((ignored, error) -> {
+                node.recordProbe(error == null, EJECT_AFTER_FAILED_PROBES);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Get the priority of an endpoint.
+     * @param method HTTP Method of the request.
+     * @param api_uri URI of the endpoint.
+     * @return the priority set for the endpoint, else the one set for the method, else INTERACTIVE.
+     */
+    private Priority priorityFor(String method, String api_uri) {
+        Priority priority = priorities.get(method + ' ' + api_uri);
+        if (priority == null) {
+            priority = priorities.getOrDefault(method, Priority.INTERACTIVE);
+        }
+        return priority;
+    }
+
+    /**
+     * Get the retry policy of an endpoint.
+     * @param method HTTP Method of the request.
+     * @param api_uri URI of the endpoint.
+     * @return the policy set for the endpoint, else the one set for the method, else none.
+     */
+    private RetryPolicy retryPolicyFor(String method, String api_uri) {
+        RetryPolicy policy = retryPolicies.get(method + ' ' + api_uri);
+        if (policy == null) {
+            policy = retryPolicies.getOrDefault(method, RetryPolicy.none());
+        }
+        return policy;
+    }
+
+    /**
+     * Build the HTTP request for an API call.
+     * @param node Replica the request is sent to.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request.
+     * @param authorization Authorization token of the User.
+     * @param body Encoded input to be sent to the server, or null.
+     * @param headers Additional headers of the request.
+     * @return the request, ready to be sent.
+     */
+    private HttpRequest buildRequest(ServerNode node, String api_uri, String method, String authorization,
+                                     BodyEncoding.RequestBody body, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(node.getUrl() + api_uri + '/' + this.api_key))
+                .timeout(this.readTimeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", BodyEncoding.ACCEPT_ENCODING);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        if (authorization != null && !authorization.isEmpty()) { // If given authorization token.
+            builder.header("Authorization", "Bearer " + authorization); // Set token.
+        }
+        if (body != null) {
+            builder.header("Content-Type", "application/json; charset=utf-8");
+            if (body.gzipped) {
+                builder.header("Content-Encoding", "gzip");
+            }
+            builder.method(method, HttpRequest.BodyPublishers.ofByteArray(body.bytes));
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Map an unsuccessful status code to the exception it represents.
+     * @param statusCode Status code of the response.
+     * @return the exception matching the status code.
+     */
+    private static Exception exceptionFor(int statusCode) {
+        switch (statusCode) {
+            case 400:
+                return new InvalidJSONException("JSON format is invalid.");
+            case 401:
+                return new APIAuthorizationException("Authentication failed: API Key or user" +
+                        "credentials might be wrong or not enough to access this resource.");
+            case 403:
+                return new UserAlreadyExistsException("User with this username already" +
+                        "exists.");
+            case 412:
+                return new UnsatisfiableCriteriaException("Criteria requested not satisfiable.");
+            case 422:
+                return new InvalidUserSessionException("Invalid user session.");
+            default:
+                return statusCode >= 500 ? new ServerUnavailableException("An unexpected exception occured.")
+                        : new ServerException("An unexpected exception occured.");
+        }
+    }
+
+    /**
+     * Send a request to the given URI without blocking the calling thread, once
+     * it is admitted. Transport failures and rejections complete the future
+     * exceptionally with a ServerException.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request.
+     * @param authorization Authorization token of the User.
+     * @param input Input to be sent to the server.
+     * @param priority Priority of the request, or null for the priority of its endpoint.
+     * @param headers Additional headers of the request.
+     * @param bodyHandler Handler of the response body.
+     * @param handler Turns the response into the result of the request.
+     * @param <T> Type of the response body.
+     * @param <R> Type of the result.
+     * @return a future that completes with the result, once it is reported to the metrics listeners.
+     * Cancelling it takes the request out of the admission queue, or aborts its exchange in flight.
+     */
+    private <T, R> CompletableFuture<R> dispatch(String api_uri, String method, String authorization,
+                                                 String input, Priority priority, Map<String, String> headers,
+                                                 HttpResponse.BodyHandler<T> bodyHandler,
+                                                 Function<HttpResponse<T>, R> handler) {
+        RetryPolicy policy = retryPolicyFor(method, api_uri);
+        Duration hedge = method.equals("GET") && policy.getMaxAttempts() > 1 ? hedgeDelay : null;
+        return CancellableCall.start(call -> call.step(admission.admit(method + ' ' + api_uri,
+                        priority != null ? priority : priorityFor(method, api_uri)))
+                .thenCompose(release -> {
+                    BodyEncoding.RequestBody body = BodyEncoding.encode(input, compressionThreshold);
+                    RequestTrace trace = new RequestTrace(method, api_uri, body == null ? 0 : body.bytes.length, call);
+                    return execute(node -> buildRequest(node, api_uri, method, authorization, body, headers),
+                            trace.counting(bodyHandler), policy, 1, hedge, true, trace, null, null)
+                            .thenApply(httpResponse -> {
+                                trace.setStatusCode(httpResponse.statusCode());
+                                return handler.apply(httpResponse);
+                            })
+                            .whenComplete((result, error) -> {
+                                release.run();
+                                report(trace, error);
+                            });
+                }));
+    }
+
+    /**
+     * Make a request, or join an identical one in flight if its endpoint is coalesced.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request.
+     * @param authorization Authorization token of the User.
+     * @param input Input to be sent to the server.
+     * @param decoder Decoder of the response body, or null if it is not decoded.
+     * @param call Sends the request.
+     * @param <R> Type of the result.
+     * @return a future that completes with the result of the request.
+     */
+    private <R> CompletableFuture<R> coalesce(String api_uri, String method, String authorization, String input,
+                                              Object decoder, Supplier<CompletableFuture<R>> call) {
+        if (coalescedEndpoints.isEmpty() || !coalescedEndpoints.contains(method + ' ' + api_uri)) {
+            return call.get();
+        }
+        return inFlight.run(new SingleFlight.Key(method, api_uri, authorization, input, decoder), call);
+    }
+
+    /**
+     * Report a completed request to the metrics and the metrics listeners.
+     * @param trace Measurements of the request.
+     * @param error The exception the request failed with, or null.
+     */
+    private void report(RequestTrace trace, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        long latencyNanos = trace.elapsedNanos();
+        trace.report(metrics, latencyNanos, cause);
+        for (MetricsListener listener : metricsListeners) {
+            try {
+                trace.report(listener, latencyNanos, cause);
+            } catch (RuntimeException e) {
+                // A failing listener must not fail the request.
+            }
+        }
+    }
+
+    /**
+     * Make an attempt at a request, retrying it as the policy allows.
+     * @param requestFor Builds the request for the replica it is sent to.
+     * @param bodyHandler Handler of the response body.
+     * @param policy Retry policy of the request.
+     * @param attempt Number of this attempt, starting from 1.
+     * @param hedge Delay before the request is hedged, or null if it is not hedged.
+     * @param guarded If the request goes through the circuit breaker.
+     * @param trace Measurements of the request, or null if it is not reported.
+     * @param pinned Replica every attempt is sent to, or null to let the load balancer pick one.
+     * @param previous Replica the previous attempt failed on, avoided if another one is available, or null.
+     * @param <T> Type of the response body.
+     * @return a future that completes with the raw HTTP response.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> execute(Function<ServerNode, HttpRequest> requestFor,
+                                                          HttpResponse.BodyHandler<T> bodyHandler, RetryPolicy policy,
+                                                          int attempt, Duration hedge, boolean guarded,
+                                                          RequestTrace trace, ServerNode pinned, ServerNode previous) {
+        if (trace != null) {
+            if (trace.getCall().isCancelled()) {
+                return CompletableFuture.failedFuture(new CancellationException()); // Cancelled during the backoff.
+            }
+            trace.setAttempts(attempt);
+        }
+        CircuitBreaker breaker = this.circuitBreaker;
+        CompletableFuture<Void> admitted = guarded ? breaker.acquire(this::probe) : CompletableFuture.completedFuture(null);
+        ServerNode[] sentTo = new ServerNode[1];
+        return admitted
+                .thenCompose(ignored -> {
+                    sentTo[0] = pinned != null ? pinned : balancer.select(previous);
+                    CompletableFuture<HttpResponse<T>> exchange = hedge != null ? sendHedged(sentTo[0], requestFor, bodyHandler, hedge)
+                            : send(sentTo[0], requestFor, bodyHandler);
+                    return trace != null ? trace.getCall().step(exchange) : exchange;
+                })
+                .handle((httpResponse, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof CancellationException || cause instanceof ServerException) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(cause); // Cancelled, circuit open or bad URI.
+                    }
+                    boolean failed = cause != null || httpResponse.statusCode() >= 500;
+                    if (guarded) {
+                        if (failed) {
+                            breaker.recordFailure();
+                        } else {
+                            breaker.recordSuccess();
+                        }
+                    }
+                    if (failed && attempt < policy.getMaxAttempts()) {
+                        if (httpResponse != null) {
+                            discard(httpResponse);
+                        }
+                        Executor backoff = CompletableFuture.delayedExecutor(policy.backoffNanos(attempt), TimeUnit.NANOSECONDS);
+                        return CompletableFuture.supplyAsync(() -> null, backoff)
+                                .thenCompose(ignored -> execute(requestFor, bodyHandler, policy, attempt + 1, hedge,
+                                        guarded, trace, pinned, sentTo[0]));
+                    }
+                    if (cause != null) {
+                        return CompletableFuture.<HttpResponse<T>>failedFuture(new ServerUnavailableException("Connection closed.", cause));
+                    }
+                    return CompletableFuture.completedFuture(httpResponse);
+                })
+                .thenCompose(response -> response);
+    }
+
+    /**
+     * Send a request to a replica, keeping track of its load and latency.
+     * @param node Replica the request is sent to.
+     * @param requestFor Builds the request for the replica.
+     * @param bodyHandler Handler of the response body.
+     * @param <T> Type of the response body.
+     * @return a future that completes with the raw HTTP response.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(ServerNode node, Function<ServerNode, HttpRequest> requestFor,
+                                                       HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest request;
+        try {
+            request = requestFor.apply(node);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new ServerException("Invalid request URI.", e));
+        }
+        long start = System.nanoTime();
+        node.begin();
+        CompletableFuture<HttpResponse<T>> exchange = client.sendAsync(request, bodyHandler);
+        exchange.whenComplete((httpResponse, error) -> node.end(System.nanoTime() - start));
+        return exchange; // Not a derived future, so that cancelling it aborts the exchange.
+    }
+
+    /**
+     * Send a request, and send it once more, to another replica if there is
+     * one, if it is not answered within the hedge delay. The first good
+     * response wins and the other is cancelled.
+     * @param primary Replica the request is sent to first.
+     * @param requestFor Builds the request for the replica it is sent to.
+     * @param bodyHandler Handler of the response body.
+     * @param delay Delay before the request is sent once more.
+     * @param <T> Type of the response body.
+     * @return a future that completes with the first good response, or with
+     * the last failure if neither is good.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendHedged(ServerNode primary, Function<ServerNode, HttpRequest> requestFor,
+                                                             HttpResponse.BodyHandler<T> bodyHandler, Duration delay) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<HttpResponse<T>>();
+        List<CompletableFuture<HttpResponse<T>>> attempts = new CopyOnWriteArrayList<CompletableFuture<HttpResponse<T>>>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        BiConsumer<HttpResponse<T>, Throwable> settle = (httpResponse, error) -> {
+            boolean good = error == null && httpResponse.statusCode() < 500;
+            boolean last = !good && outstanding.decrementAndGet() == 0;
+            if (good || last) {
+                boolean won = error == null ? result.complete(httpResponse) : result.completeExceptionally(error);
+                if (!won && httpResponse != null) {
+                    discard(httpResponse);
+                }
+            } else if (httpResponse != null) {
+                discard(httpResponse);
+            }
+        };
+        CompletableFuture<HttpResponse<T>> first = send(primary, requestFor, bodyHandler);
+        attempts.add(first);
+        first.whenComplete(settle);
+        CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+            if (!result.isDone()) {
+                outstanding.incrementAndGet();
+                CompletableFuture<HttpResponse<T>> second = send(balancer.select(primary), requestFor, bodyHandler);
+                attempts.add(second);
+                second.whenComplete(settle);
+                if (result.isDone()) {
+                    second.cancel(true); // The first one won while this one was being sent.
+                }
+            }
+        });
+        result.whenComplete((httpResponse, error) -> {
+            for (CompletableFuture<HttpResponse<T>> attempt : attempts) {
+                attempt.cancel(true); // Aborts the exchange of the loser, no effect on the winner.
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Release the body of a response that will not be read.
+     * @param httpResponse The response.
+     */
+    private static void discard(HttpResponse<?> httpResponse) {
+        if (httpResponse.body() instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) httpResponse.body()).close();
+            } catch (Exception e) {
+                // The response is dropped anyway.
+            }
         }
-        return instance;
     }
 
     /**
-     * Send an input through a connection.
-     * @param con HTTP connection.
-     * @param input Input to sent.
-     * @throws IOException According to official Javadoc this may occur.
+     * Probe the server for readiness, bypassing the circuit breaker.
+     * @return a future that completes with whether the server is ready.
+     */
+    private CompletableFuture<Boolean> probe() {
+        return readiness(null).handle((ignored, error) -> error == null);
+    }
+
+    /**
+     * Send a readiness request to the server, bypassing the circuit breaker.
+     * @param node Replica to probe, or null to let the load balancer pick one.
+     * @return a future that completes once the server answered successfully,
+     * or exceptionally with the exception its answer maps to.
+     */
+    private CompletableFuture<Void> readiness(ServerNode node) {
+        Function<ServerNode, HttpRequest> requestFor = target ->
+                buildRequest(target, "", "GET", "", null, Collections.emptyMap());
+        // Sent through the probed replica itself, so its load and latency are charged to it.
+        return execute(requestFor, HttpResponse.BodyHandlers.discarding(), RetryPolicy.none(), 1, null, false, null,
+                node, null)
+                .thenAccept(httpResponse -> {
+                    int statusCode = httpResponse.statusCode();
+                    if (statusCode < 200 || statusCode > 299) {
+                        throw new CompletionException(exceptionFor(statusCode));
+                    }
+                });
+    }
+
+    /**
+     * Open a long-lived GET stream, such as a stream of server-sent events. The
+     * stream is not retried, hedged or counted as load of its replica; the
+     * caller reconnects it when it ends.
+     * @param api_uri URI of the stream, EXCLUDING the server ip
+     * @param query Query string of the request, without the leading '?', or null.
+     * @param accept Media type of the stream.
+     * @param headers Additional headers of the request.
+     * @return a future that completes with the response, whose body is still
+     * streaming in, or exceptionally with the exception an unsuccessful status maps to.
      */
-    private static void sendInput(HttpURLConnection con, String input) throws IOException {
-        try (OutputStream outputStream = con.getOutputStream()) {
-            byte[] inputBytes = input.getBytes();
-            outputStream.write(inputBytes, 0, inputBytes.length);
+    CompletableFuture<HttpResponse<InputStream>> openStream(String api_uri, String query, String accept,
+                                                            Map<String, String> headers) {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(balancer.select(null).getUrl()
+                            + api_uri + '/' + this.api_key + (query == null ? "" : '?' + query)))
+                    .timeout(this.readTimeout) // Until the response headers, not for the whole stream.
+                    .header("Accept", accept);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+            request = builder.GET().build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new ServerException("Invalid request URI.", e));
         }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .handle((httpResponse, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        throw new CompletionException(new ServerUnavailableException("Connection closed.", cause));
+                    }
+                    int statusCode = httpResponse.statusCode();
+                    if (statusCode < 200 || statusCode > 299) {
+                        discard(httpResponse);
+                        throw new CompletionException(exceptionFor(statusCode));
+                    }
+                    return httpResponse;
+                });
+    }
+
+    /**
+     * Send a request to the given URI without blocking the calling thread.
+     * Unsuccessful responses complete the future exceptionally with the same
+     * exceptions {@link #sendRequest(String, String, String, String)} throws.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request: GET, POST, PUT, DELETE ... etc
+     * @param authorization Authorization token of the User.
+     * @param input Input to be sent to the server.
+     * @return a future that completes with the response from the server.
+     */
+    CompletableFuture<SileneResponse> sendRequestAsync(String api_uri, String method,
+                                                       String authorization, String input) {
+        return sendRequestAsync(api_uri, method, authorization, input, (Priority) null);
+    }
+
+    /**
+     * Send a request with a priority, overriding the priority of its endpoint.
+     * @see #sendRequestAsync(String, String, String, String)
+     * @param priority Priority of the request, or null for the priority of its endpoint.
+     */
+    CompletableFuture<SileneResponse> sendRequestAsync(String api_uri, String method,
+                                                       String authorization, String input, Priority priority) {
+        return coalesce(api_uri, method, authorization, input, null, () -> dispatch(api_uri, method,
+                authorization, input, priority, Collections.emptyMap(), BodyEncoding.STRING,
+                httpResponse -> {
+                    SileneResponse response = new SileneResponse(httpResponse.statusCode(), httpResponse.body());
+                    if (!response.isSuccessful()) {
+                        throw new CompletionException(exceptionFor(response.getStatusCode()));
+                    }
+                    return response;
+                }));
+    }
+
+    /**
+     * Send a request to the given URI without blocking the calling thread, and
+     * decode the response body as it streams in from the connection.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request: GET, POST, PUT, DELETE ... etc
+     * @param authorization Authorization token of the User.
+     * @param input Input to be sent to the server.
+     * @param decoder Decoder of the response body.
+     * @param <T> Type of the decoded response.
+     * @return a future that completes with the decoded response.
+     */
+    <T> CompletableFuture<T> sendRequestAsync(String api_uri, String method, String authorization,
+                                              String input, ResponseDecoder<T> decoder) {
+        return coalesce(api_uri, method, authorization, input, decoder, () -> dispatch(api_uri, method,
+                authorization, input, null, Collections.emptyMap(), HttpResponse.BodyHandlers.ofInputStream(),
+                httpResponse -> decodeBody(httpResponse, decoder)));
+    }
+
+    /**
+     * Send a GET request carrying the validators of a cached response, without
+     * blocking the calling thread. The validators are not updated here: the
+     * caller stores those of a fresh response along with its body, so a
+     * concurrent request never sends validators of a body not stored yet.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param authorization Authorization token of the User.
+     * @param validators Validators of the cached response.
+     * @param decoder Decoder of the response body.
+     * @param <T> Type of the decoded response.
+     * @return a future that completes with the decoded response and its headers,
+     * or with a response without body if the server answered 304 Not Modified.
+     */
+    <T> CompletableFuture<ConditionalResponse<T>> sendConditionalRequestAsync(String api_uri, String authorization,
+                                                                              CacheValidators validators,
+                                                                              ResponseDecoder<T> decoder) {
+        return dispatch(api_uri, "GET", authorization, "", null, validators.toHeaders(),
+                HttpResponse.BodyHandlers.ofInputStream(), httpResponse -> {
+                    if (httpResponse.statusCode() == 304) {
+                        try {
+                            httpResponse.body().close();
+                        } catch (IOException e) {
+                            // Nothing was expected from the body anyway.
+                        }
+                        return new ConditionalResponse<T>(null, httpResponse.headers());
+                    }
+                    return new ConditionalResponse<T>(decodeBody(httpResponse, decoder), httpResponse.headers());
+                });
     }
 
     /**
-     * Get the output from the body of the response.
-     * @param con Connection in http.
-     * @return the output JSON string.
-     * @throws IOException According to official Javadoc this may occur.
+     * Check the status of a response and decode its body from the connection.
+     * @param httpResponse Response whose body is still streaming in.
+     * @param decoder Decoder of the response body.
+     * @param <T> Type of the decoded response.
+     * @return the decoded response.
+     * @throws CompletionException wrapping the exception the status code maps to, or a read failure.
      */
-    private static String getOutput(HttpURLConnection con) throws IOException {
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)
-        )) {
-            StringBuilder response = new StringBuilder();
-            String responseLine = null;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
+    private static <T> T decodeBody(HttpResponse<InputStream> httpResponse, ResponseDecoder<T> decoder) {
+        try (InputStream body = httpResponse.body()) {
+            int statusCode = httpResponse.statusCode();
+            if (statusCode < 200 || statusCode > 299) {
+                throw new CompletionException(exceptionFor(statusCode));
             }
-            return response.toString();
+            try (InputStream decoded = BodyEncoding.decoded(body, httpResponse.headers())) {
+                return decoder.decode(new JsonReader(new InputStreamReader(decoded, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            throw new CompletionException(new ServerUnavailableException("Connection closed.", e));
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new CompletionException(new ServerException("Malformed response.", e));
+        }
+    }
+
+    /**
+     * Wait for a pending request and rethrow its failure as the original
+     * checked exception.
+     * @param future Future of the request.
+     * @param <T> Type of the result.
+     * @return the result of the future.
+     * @throws ServerException An exception occurred in the server or the wait was interrupted.
+     */
+    static <T> T await(CompletableFuture<T> future) throws InvalidJSONException, APIAuthorizationException,
+            UserAlreadyExistsException, UnsatisfiableCriteriaException, InvalidUserSessionException, ServerException,
+            ServerNotInitialisedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while waiting for the server.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidJSONException) throw (InvalidJSONException) cause;
+            if (cause instanceof APIAuthorizationException) throw (APIAuthorizationException) cause;
+            if (cause instanceof UserAlreadyExistsException) throw (UserAlreadyExistsException) cause;
+            if (cause instanceof UnsatisfiableCriteriaException) throw (UnsatisfiableCriteriaException) cause;
+            if (cause instanceof InvalidUserSessionException) throw (InvalidUserSessionException) cause;
+            if (cause instanceof ServerException) throw (ServerException) cause;
+            if (cause instanceof ServerNotInitialisedException) throw (ServerNotInitialisedException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new ServerException("An unexpected exception occured.", cause);
         }
     }
 
@@ -160,49 +1059,33 @@ public class Server {
      * @throws UnsatisfiableCriteriaException Criteria for search or creation unsatisfiable.
      * @throws InvalidUserSessionException User session corrupt.
      */
-    static SileneResponse sendRequest(String api_uri, String method,
-                                      String authorization, String input) throws InvalidJSONException, APIAuthorizationException,
+    SileneResponse sendRequest(String api_uri, String method,
+                               String authorization, String input) throws InvalidJSONException, APIAuthorizationException,
             UserAlreadyExistsException, UnsatisfiableCriteriaException, InvalidUserSessionException, ServerException, ServerNotInitialisedException{
-        try {
-            Server server = getServer();
-            URL url = new URL(server.url + api_uri + '/' + server.api_key);
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setRequestMethod(method);
-            con.setRequestProperty("Accept", "application/json");
-            if (!authorization.isEmpty()) { // If given authorization token.
-                con.setRequestProperty("Authorization", "Bearer " + authorization); // Set token.
-            }
-            if (input != null && !input.isEmpty()) {
-                con.setDoOutput(true);
-                con.setRequestProperty("Content-Type", "application/json");
-                sendInput(con, input);
-            }
-            String jsonResponse = getOutput(con);
-            SileneResponse response = new SileneResponse(con.getResponseCode(), jsonResponse) ;
-            if (!response.isSuccessful()) {
-                switch (response.getStatusCode()) {
-                    case 400:
-                        throw new InvalidJSONException("JSON format is invalid.");
-                    case 401:
-                        throw new APIAuthorizationException("Authentication failed: API Key or user" +
-                                "credentials might be wrong or not enough to access this resource.");
-                    case 403:
-                        throw new UserAlreadyExistsException("User with this username already" +
-                                "exists.");
-                    case 412:
-                        throw new UnsatisfiableCriteriaException("Criteria requested not satisfiable.");
-                    case 422:
-                        throw new InvalidUserSessionException("Invalid user session.");
-                    default:
-                        throw new ServerException("An unexpected exception occured.");
-                }
-            } else {
-                return response;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new ServerException("Connection closed.");
-        }
+        return await(sendRequestAsync(api_uri, method, authorization, input));
+    }
+
+    /**
+     * Send a request to the given URI. Return its decoded response.
+     * @param api_uri URI to send request to, EXCLUDING the server ip
+     * @param method HTTP Method of the request: GET, POST, PUT, DELETE ... etc
+     * @param authorization Authorization token of the User.
+     * @param input Input to be sent to the server.
+     * @param decoder Decoder of the response body.
+     * @param <T> Type of the decoded response.
+     * @return the decoded response from the server.
+     * @throws ServerNotInitialisedException Raised in case .setUpServer() is not called prior.
+     * @throws ServerException An exception occurred in the server.
+     * @throws InvalidJSONException JSON provided is wrong.
+     * @throws APIAuthorizationException API Key is invalid.
+     * @throws UserAlreadyExistsException User already exists
+     * @throws UnsatisfiableCriteriaException Criteria for search or creation unsatisfiable.
+     * @throws InvalidUserSessionException User session corrupt.
+     */
+    <T> T sendRequest(String api_uri, String method, String authorization, String input,
+                      ResponseDecoder<T> decoder) throws InvalidJSONException, APIAuthorizationException,
+            UserAlreadyExistsException, UnsatisfiableCriteriaException, InvalidUserSessionException, ServerException, ServerNotInitialisedException{
+        return await(sendRequestAsync(api_uri, method, authorization, input, decoder));
     }
 
     /**
@@ -213,7 +1096,7 @@ public class Server {
      * @throws Exception may occur.
      */
     public boolean isReady() throws APIAuthorizationException, ServerException, Exception {
-        SileneResponse response = sendRequest("", "GET", "", "");
+        await(readiness(null));
         return true;
     }
 
@@ -225,8 +1108,7 @@ public class Server {
     public Map<String, String> getServerConfiguration() throws Exception {
         SileneResponse response = sendRequest("/api", "GET", "", "");
         String jsonString = response.getJsonResponse();
-        Gson gsonObj = new Gson();
-        Map<String, String> values = gsonObj.fromJson(jsonString, HashMap.class);
+        Map<String, String> values = JsonCodec.GSON.fromJson(jsonString, HashMap.class);
         return values;
     }
 }
@@ -0,0 +1,69 @@
+package com.vulpex.silene;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single backend replica of a Server, along with the load and health
+ * information used to balance requests across replicas.
+ */
+final class ServerNode {
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private final String url;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile double latencyNanos = 0;
+    private volatile boolean healthy = true;
+    private int consecutiveProbeFailures = 0;
+
+    ServerNode(String url) {
+        this.url = url;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Record that a request was sent to this node.
+     */
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Record that a request to this node is answered.
+     * @param elapsedNanos Time it took to answer the request.
+     */
+    void end(long elapsedNanos) {
+        outstanding.decrementAndGet();
+        double previous = latencyNanos;
+        latencyNanos = previous == 0 ? elapsedNanos
+                : previous + LATENCY_SMOOTHING * (elapsedNanos - previous); // Racy updates only lose a sample.
+    }
+
+    /**
+     * Record the result of a health probe. A node is ejected after the given
+     * number of consecutive failed probes and readmitted after a successful one.
+     * @param ready If the node answered the probe successfully.
+     * @param ejectAfter Consecutive failed probes that eject the node.
+     */
+    synchronized void recordProbe(boolean ready, int ejectAfter) {
+        if (ready) {
+            consecutiveProbeFailures = 0;
+            healthy = true;
+        } else if (++consecutiveProbeFailures >= ejectAfter) {
+            healthy = false;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.vulpex.silene;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * The access token of a logged in user. The token is refreshed shortly
+ * before it expires, and whenever the server rejects it; concurrent
+ * requests that need a fresh token share a single refresh.
+ */
+final class Session {
+    private static final long MAX_REFRESH_MARGIN_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private final Function<Grant, CompletableFuture<Grant>> refresher;
+    private final AtomicReference<CompletableFuture<String>> refreshing = new AtomicReference<CompletableFuture<String>>();
+    private volatile Grant grant;
+
+    /**
+     * Initialise a Session whose token cannot be refreshed.
+     * @param accessToken The access token.
+     */
+    Session(String accessToken) {
+        this(new Grant(accessToken, null, false, 0, 0), null);
+    }
+
+    /**
+     * Initialise a Session.
+     * @param grant The token granted at login.
+     * @param refresher Obtains a new grant in place of a stale one.
+     */
+    Session(Grant grant, Function<Grant, CompletableFuture<Grant>> refresher) {
+        this.grant = grant;
+        this.refresher = refresher;
+    }
+
+    /**
+     * Get the current access token.
+     * @return the access token, possibly expired.
+     */
+    String getToken() {
+        return grant.accessToken;
+    }
+
+    /**
+     * Get a token to send a request with. A token close to expiring is
+     * refreshed in the background, an expired one is refreshed first.
+     * @return a future that completes with the access token.
+     */
+    CompletableFuture<String> token() {
+        Grant current = grant;
+        long now = System.nanoTime();
+        if (refresher == null || !current.expires || now - current.refreshAtNanos < 0) {
+            return CompletableFuture.completedFuture(current.accessToken);
+        }
+        CompletableFuture<String> refreshed = refresh(current.accessToken);
+        return now - current.expiresAtNanos < 0 ? CompletableFuture.completedFuture(current.accessToken) : refreshed;
+    }
+
+    /**
+     * Replace a token the server rejected. If the token was already replaced,
+     * or is being replaced, no further refresh is made.
+     * @param stale The rejected token.
+     * @return a future that completes with the fresh token, or exceptionally
+     * with InvalidUserSessionException if the token cannot be refreshed.
+     */
+    CompletableFuture<String> refresh(String stale) {
+        if (refresher == null) {
+            return CompletableFuture.failedFuture(new InvalidUserSessionException("Invalid user session."));
+        }
+        while (true) {
+            CompletableFuture<String> pending = refreshing.get();
+            if (pending != null) {
+                return pending;
+            }
+            Grant current = grant;
+            if (!current.accessToken.equals(stale)) {
+                return CompletableFuture.completedFuture(current.accessToken); // Already refreshed.
+            }
+            CompletableFuture<String> mine = new CompletableFuture<String>();
+            if (!refreshing.compareAndSet(null, mine)) {
+                continue;
+            }
+            if (grant != current) { // Refreshed between the check and the swap.
+                refreshing.set(null);
+                mine.complete(grant.accessToken);
+                return mine;
+            }
+            CompletableFuture<Grant> fresh;
+            try {
+                fresh = refresher.apply(current);
+            } catch (RuntimeException e) {
+                fresh = CompletableFuture.failedFuture(e);
+            }
+            fresh.whenComplete((next, error) -> {
+                if (error == null) {
+                    grant = next;
+                }
+                refreshing.set(null);
+                if (error == null) {
+                    mine.complete(next.accessToken);
+                } else {
+                    mine.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            });
+            return mine;
+        }
+    }
+
+    /**
+     * An access token, the refresh token issued with it if any, and when it expires.
+     */
+    static final class Grant {
+        final String accessToken;
+        final String refreshToken;
+        final boolean expires;
+        final long expiresAtNanos;
+        final long refreshAtNanos;
+
+        private Grant(String accessToken, String refreshToken, boolean expires, long expiresAtNanos, long refreshAtNanos) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.expires = expires;
+            this.expiresAtNanos = expiresAtNanos;
+            this.refreshAtNanos = refreshAtNanos;
+        }
+
+        /**
+         * Parse the answer of a login or refresh request. The lifetime of the
+         * token is read from expires_in, else from the exp claim of a JWT.
+         * A token whose lifetime is unknown is only refreshed once rejected.
+         * @param json Body of the answer.
+         * @param previous The grant being replaced, whose refresh token is kept if
+         * no new one is issued, or null.
+         * @return the grant.
+         * @throws CompletionException wrapping an InvalidUserSessionException if no token was granted.
+         */
+        static Grant parse(String json, Grant previous) {
+            JsonObject body;
+            try {
+                JsonElement element = JsonParser.parseString(json);
+                body = element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+            } catch (JsonParseException e) {
+                body = new JsonObject();
+            }
+            if (!body.has("access_token") || body.get("access_token").isJsonNull()) {
+                throw new CompletionException(new InvalidUserSessionException("No access token was granted."));
+            }
+            String accessToken = body.get("access_token").getAsString();
+            String refreshToken = body.has("refresh_token") && !body.get("refresh_token").isJsonNull()
+                    ? body.get("refresh_token").getAsString() : previous == null ? null : previous.refreshToken;
+            long now = System.nanoTime();
+            long lifetimeNanos;
+            if (body.has("expires_in") && body.get("expires_in").isJsonPrimitive()) {
+                lifetimeNanos = TimeUnit.SECONDS.toNanos(body.get("expires_in").getAsLong());
+            } else {
+                long expiresAtMillis = jwtExpiry(accessToken);
+                if (expiresAtMillis == 0) {
+                    return new Grant(accessToken, refreshToken, false, 0, 0);
+                }
+                lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(expiresAtMillis - System.currentTimeMillis());
+            }
+            long margin = Math.min(MAX_REFRESH_MARGIN_NANOS, Math.max(0, lifetimeNanos / 5));
+            return new Grant(accessToken, refreshToken, true, now + lifetimeNanos, now + lifetimeNanos - margin);
+        }
+
+        /**
+         * Read the expiry of a JSON Web Token.
+         * @param token The token.
+         * @return the exp claim in epoch milliseconds, or 0 if the token is not a JWT with one.
+         */
+        private static long jwtExpiry(String token) {
+            String[] parts = token.split("\\.");
+            if (parts.length != 3) {
+                return 0;
+            }
+            try {
+                String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+                JsonElement claims = JsonParser.parseString(payload);
+                if (claims.isJsonObject() && claims.getAsJsonObject().has("exp")) {
+                    return TimeUnit.SECONDS.toMillis(claims.getAsJsonObject().get("exp").getAsLong());
+                }
+            } catch (IllegalArgumentException | JsonParseException | IllegalStateException e) {
+                // Not a JWT after all.
+            }
+            return 0;
+        }
+    }
+}
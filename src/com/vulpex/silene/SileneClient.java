@@ -0,0 +1,578 @@
+package com.vulpex.silene;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.net.MalformedURLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A client of the ProjectGeorge API. A client owns its server configuration,
+ * connection pool and caches, and the users it returns are bound to it, so
+ * several clients with different servers or API keys can be used side by
+ * side in the same process. A client is safe to share across threads.
+ *
+ * The static methods of {@link Server} and {@link User} use the default
+ * client, set up by {@link Server#setUpServer(String, String)}.
+ */
+public class SileneClient implements AutoCloseable {
+    private static final TypeToken<HashMap<String, String>> PROFILE = new TypeToken<HashMap<String, String>>() {};
+    private static volatile SileneClient defaultClient;
+    private final Server server;
+    private final ResponseDecoder<List<Tutor>> tutorDecoder = JsonCodec.tutors(this);
+    private volatile UserCache userCache = new UserCache(0, Duration.ZERO); // Disabled until a cache is set.
+    private volatile TutorIndex tutorIndex;
+    private volatile SnapshotCache snapshot;
+    private volatile boolean reloginOnExpiry;
+    private LectureEventStream lectureEvents; // Guarded by this.
+
+    /**
+     * Initialise a SileneClient.
+     * @param url URL of the server.
+     * @param api_key API key of the client.
+     * @throws MalformedURLException If the URL is malformed.
+     */
+    public SileneClient(String url, String api_key) throws MalformedURLException {
+        this(Collections.singletonList(url), api_key, Server.DEFAULT_CONNECT_TIMEOUT, Server.DEFAULT_READ_TIMEOUT,
+                BalancingStrategy.ROUND_ROBIN);
+    }
+
+    /**
+     * Initialise a SileneClient for a server with several replicas.
+     * @param urls URLs of the replicas of the server.
+     * @param api_key API key of the client.
+     * @param connectTimeout Maximum time to wait while establishing a connection.
+     * @param readTimeout Maximum time to wait for a response once a request is sent.
+     * @param strategy How requests are spread across the replicas.
+     * @throws MalformedURLException If a URL is malformed.
+     */
+    public SileneClient(List<String> urls, String api_key, Duration connectTimeout, Duration readTimeout,
+                        BalancingStrategy strategy) throws MalformedURLException {
+        this.server = new Server(urls, api_key, connectTimeout, readTimeout, strategy);
+    }
+
+    /**
+     * Get the default client.
+     * @return the client set up by Server.setUpServer.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    static SileneClient getDefault() throws ServerNotInitialisedException {
+        SileneClient client = defaultClient;
+        if (client == null) {
+            throw new ServerNotInitialisedException("setUpServer must be called first.");
+        }
+        return client;
+    }
+
+    /**
+     * Replace the default client, closing the previous one.
+     * @param client The new default client.
+     */
+    static void setDefault(SileneClient client) {
+        SileneClient previous;
+        synchronized (SileneClient.class) {
+            previous = defaultClient;
+            defaultClient = client;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Get the decoder of tutor searches, which binds the tutors to this client.
+     * @return the decoder.
+     */
+    ResponseDecoder<List<Tutor>> getTutorDecoder() {
+        return tutorDecoder;
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    /**
+     * Check if the server accepting connections.
+     * @return True if the server accepts connections.
+     * @throws Exception If the server is not ready.
+     */
+    public boolean isReady() throws Exception {
+        return server.isReady();
+    }
+
+    /**
+     * Set how failed requests to an endpoint are retried.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint, or null to set the default policy of the method.
+     * @param policy The retry policy.
+     * @see Server#setRetryPolicy(String, String, RetryPolicy)
+     */
+    public void setRetryPolicy(String method, String api_uri, RetryPolicy policy) {
+        server.putRetryPolicy(method, api_uri, policy);
+    }
+
+    /**
+     * Make requests fail fast once the server keeps failing.
+     * @param failureThreshold Consecutive failures that open the circuit, 0 disables the breaker.
+     * @param openDuration How long requests fail fast before the server is probed again.
+     * @see Server#setCircuitBreaker(int, Duration)
+     */
+    public void setCircuitBreaker(int failureThreshold, Duration openDuration) {
+        server.useCircuitBreaker(failureThreshold, openDuration);
+    }
+
+    /**
+     * Hedge GET requests to cut tail latency. Only GETs whose retry policy
+     * allows more than one attempt are hedged.
+     * @param delay Delay before the hedged request, or null to disable hedging.
+     * @see Server#setHedgeDelay(Duration)
+     */
+    public void setHedgeDelay(Duration delay) {
+        server.useHedgeDelay(delay);
+    }
+
+    /**
+     * Probe every replica of the server periodically in the background.
+     * @param period Time between two probes of a replica.
+     * @see Server#startHealthChecks(Duration)
+     */
+    public void startHealthChecks(Duration period) {
+        server.scheduleHealthChecks(period);
+    }
+
+    /**
+     * Warm up the client so its first requests run at full speed.
+     * @param connections Connections to open to each replica.
+     * @param iterations Times the JSON codecs are run on sample payloads, 0 to only build them.
+     * @return a future that completes once the client is warm.
+     * @see Server#warmUp(int, int)
+     */
+    public CompletableFuture<Void> warmUp(int connections, int iterations) {
+        return server.warm(connections, iterations);
+    }
+
+    /**
+     * Gzip request bodies from a given size.
+     * @param thresholdBytes Size in bytes from which bodies are compressed, or a negative number to never compress.
+     * @see Server#setRequestCompression(int)
+     */
+    public void setRequestCompression(int thresholdBytes) {
+        server.useRequestCompression(thresholdBytes);
+    }
+
+    /**
+     * Let concurrent identical requests to an endpoint share one call.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint.
+     * @param enabled If requests to the endpoint are coalesced.
+     * @see Server#setCoalescing(String, String, boolean)
+     */
+    public void setCoalescing(String method, String api_uri, boolean enabled) {
+        server.putCoalescing(method, api_uri, enabled);
+    }
+
+    /**
+     * Limit the rate of the requests of this client.
+     * @param permitsPerSecond Requests sent per second on average, 0 removes the limit.
+     * @param burst Requests that can be sent at once after a quiet period.
+     * @see Server#setRateLimit(double, int)
+     */
+    public void setRateLimit(double permitsPerSecond, int burst) {
+        server.useRateLimit(permitsPerSecond, burst);
+    }
+
+    /**
+     * Limit the requests in flight to an endpoint.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint.
+     * @param maxConcurrent Requests in flight at most, 0 removes the limit.
+     * @see Server#setConcurrencyLimit(String, String, int)
+     */
+    public void setConcurrencyLimit(String method, String api_uri, int maxConcurrent) {
+        server.putConcurrencyLimit(method, api_uri, maxConcurrent);
+    }
+
+    /**
+     * Set the priority of the requests to an endpoint while they wait to be sent.
+     * @param method HTTP Method of the requests.
+     * @param api_uri URI of the endpoint, or null to set the priority of the method.
+     * @param priority The priority.
+     * @see Server#setPriority(String, String, Priority)
+     */
+    public void setPriority(String method, String api_uri, Priority priority) {
+        server.putPriority(method, api_uri, priority);
+    }
+
+    /**
+     * Bound the number of requests of a priority waiting to be sent.
+     * @param priority The priority.
+     * @param maxQueued Requests that can wait at most.
+     * @see Server#setQueueLimit(Priority, int)
+     */
+    public void setQueueLimit(Priority priority, int maxQueued) {
+        server.putQueueLimit(priority, maxQueued);
+    }
+
+    /**
+     * Get the queueing of the requests of a priority waiting to be sent.
+     * @param priority The priority.
+     * @return the queue depth, wait times and rejections of the priority.
+     */
+    public AdmissionStats getAdmissionStats(Priority priority) {
+        return server.getAdmission(priority);
+    }
+
+    /**
+     * Report every completed request to a listener.
+     * @param listener The listener.
+     * @see Server#addMetricsListener(MetricsListener)
+     */
+    public void addMetricsListener(MetricsListener listener) {
+        server.addListener(listener);
+    }
+
+    /**
+     * Stop reporting requests to a listener.
+     * @param listener The listener.
+     */
+    public void removeMetricsListener(MetricsListener listener) {
+        server.removeListener(listener);
+    }
+
+    /**
+     * Get the latencies, traffic and failures of the requests sent so far, per endpoint.
+     * @return the request statistics of this client.
+     */
+    public RequestMetrics getRequestMetrics() {
+        return server.getMetrics();
+    }
+
+    /**
+     * Cache user types and profiles. Users are not cached by default; with a
+     * cache, a profile may be served up to its time to live after it changed.
+     * @param cache The new cache, a cache of size 0 disables caching.
+     */
+    public void setUserCache(UserCache cache) {
+        this.userCache = cache;
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * Serve tutor searches in the indexed localities from a local index.
+     * @param index The tutor index, or null to always search on the server.
+     */
+    public void setTutorIndex(TutorIndex index) {
+        this.tutorIndex = index;
+    }
+
+    public TutorIndex getTutorIndex() {
+        return tutorIndex;
+    }
+
+    /**
+     * Get the stream of lecture changes of this client, shared by its users.
+     * @return the stream.
+     */
+    synchronized LectureEventStream getLectureEvents() {
+        if (lectureEvents == null) {
+            lectureEvents = new LectureEventStream(server);
+        }
+        return lectureEvents;
+    }
+
+    /**
+     * Seed the lectures of the users this client creates from a snapshot.
+     * @param snapshot The loaded snapshot, or null to stop seeding.
+     */
+    void useSnapshot(SnapshotCache snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Seed the lectures of a user just created from the loaded snapshot, if any.
+     * @param user The new user.
+     * @return the user.
+     */
+    private <U extends User> U restored(U user) {
+        SnapshotCache loaded = snapshot;
+        if (loaded != null) {
+            loaded.seed(user);
+        }
+        return user;
+    }
+
+    /**
+     * Get the type of the user given its username, without blocking the calling thread.
+     * @param username Username of the user.
+     * @param priority Priority of the request, or null for the priority of its endpoint.
+     * @return A future that completes with the user type.
+     */
+    private CompletableFuture<UserType> getUserTypeAsync(String username, Priority priority) {
+        UserCache cache = userCache;
+        UserType cached = cache.getUserType(username);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("username", username);
+        return server.sendRequestAsync("/api/get_user_type", "POST", "", JsonCodec.GSON.toJson(map), priority)
+                .thenApply(response -> {
+                    UserType userType = UserType.valueOf(response.getJsonResponse().toUpperCase());
+                    cache.putUserType(username, userType);
+                    return userType;
+                });
+    }
+
+    /**
+     * Get user credentials from server.
+     * @param username Username of the user.
+     * @return The user credentials in a map.
+     * @throws Exception Any unexpected exception.
+     */
+    public Map<String, String> getUserProfile(String username) throws Exception {
+        return Server.await(getUserProfileAsync(username));
+    }
+
+    /**
+     * Get user credentials from server without blocking the calling thread.
+     * @param username Username of the user.
+     * @return A future that completes with the user credentials in a map.
+     */
+    public CompletableFuture<Map<String, String>> getUserProfileAsync(String username) {
+        return getUserProfileAsync(username, null);
+    }
+
+    private CompletableFuture<Map<String, String>> getUserProfileAsync(String username, Priority priority) {
+        Map<String, String> cached = userCache.getProfile(username);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return fetchUserProfileAsync(username, priority);
+    }
+
+    /**
+     * Get user credentials from server, even when they are cached, and cache them.
+     * @param username Username of the user.
+     * @param priority Priority of the request, or null for the priority of its endpoint.
+     * @return A future that completes with the user credentials in a map.
+     */
+    CompletableFuture<Map<String, String>> fetchUserProfileAsync(String username, Priority priority) {
+        UserCache cache = userCache;
+        Gson gson = JsonCodec.GSON;
+        Map<String, String> argumentMap = new HashMap<String, String>();
+        argumentMap.put("username", username);
+        return server.sendRequestAsync("/api/get_user_profile", "POST", "", gson.toJson(argumentMap), priority)
+                .thenApply(response -> {
+                    Map<String, String> userCredentials = gson.fromJson(response.getJsonResponse(), PROFILE);
+                    cache.putProfile(username, userCredentials);
+                    return userCredentials;
+                });
+    }
+
+    /**
+     * Create a student object from its profile.
+     * @param userCredentials Profile of the user.
+     * @return the student object.
+     */
+    private Student createStudentFrom(Map<String, String> userCredentials) {
+        return restored(new Student(this, userCredentials.get("username"), userCredentials.get("name"),
+                "", userCredentials.get("locality")));
+    }
+
+    /**
+     * Create a Tutor object from its profile.
+     * @param userCredentials Profile of the user.
+     * @return the created Tutor object.
+     */
+    private Tutor createTutorFrom(Map<String, String> userCredentials) {
+        return restored(new Tutor(this, userCredentials.get("username"), userCredentials.get("name"),
+                "", userCredentials.get("locality"),
+                userCredentials.get("allowed_weekdays"), userCredentials.get("expertise")));
+    }
+
+    /**
+     * Given a username, return the user.
+     * @param username Username of the user.
+     * @return the User with this username if it exists.
+     */
+    public User getUser(String username) {
+        try {
+            return Server.await(getUserAsync(username));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Given a username, return the user without blocking the calling thread.
+     * The type and the profile of the user are fetched concurrently.
+     * @param username Username of the user.
+     * @return A future that completes with the User with this username, or null if it cannot be found.
+     */
+    public CompletableFuture<User> getUserAsync(String username) {
+        return resolveUserAsync(username, null).exceptionally(e -> null);
+    }
+
+    /**
+     * Given a username, return the user without blocking the calling thread.
+     * @param username Username of the user.
+     * @param priority Priority of the requests, or null for the priority of their endpoints.
+     * @return A future that completes with the User, or exceptionally with the reason it cannot be resolved.
+     */
+    private CompletableFuture<User> resolveUserAsync(String username, Priority priority) {
+        return getUserTypeAsync(username, priority)
+                .thenCombine(getUserProfileAsync(username, priority), (userType, profile) -> userType == UserType.STUDENT
+                        ? (User) createStudentFrom(profile) : createTutorFrom(profile));
+    }
+
+    /**
+     * Given many usernames, return the users. Duplicate usernames are resolved
+     * once, and at most maxConcurrency users are resolved at the same time.
+     * The requests are sent with BULK priority.
+     * @param usernames Usernames of the users.
+     * @param maxConcurrency Maximum number of users resolved concurrently.
+     * @return the resolved users, and the reason resolving each of the others failed.
+     * @throws InterruptedException If interrupted while waiting for the users.
+     */
+    public BulkUserResult getUsers(Collection<String> usernames, int maxConcurrency) throws InterruptedException {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency limit must be positive.");
+        }
+        Map<String, User> users = new ConcurrentHashMap<String, User>();
+        Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+        Semaphore permits = new Semaphore(maxConcurrency);
+        for (String username : new LinkedHashSet<String>(usernames)) {
+            permits.acquire();
+            resolveUserAsync(username, Priority.BULK).whenComplete((user, error) -> {
+                if (error == null) {
+                    users.put(username, user);
+                } else {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    failures.put(username, cause instanceof Exception ? (Exception) cause
+                            : new ServerException("An unexpected exception occured.", cause));
+                }
+                permits.release();
+            });
+        }
+        permits.acquire(maxConcurrency); // Wait for the last users to be resolved.
+        return new BulkUserResult(users, failures);
+    }
+
+    /**
+     * Login a user, and return its representation as a local object.
+     * The type and profile lookups are started alongside the login call, so
+     * a login costs about a single round trip. The user keeps its access
+     * token, and refreshes it with the refresh token granted alongside it
+     * when it expires or is rejected. The password is not kept unless
+     * {@link #setReloginOnExpiry(boolean)} is enabled.
+     * @param username Username of the user.
+     * @param password Password of the user.
+     * @return the User.
+     * @throws Exception Any unexpected exception.
+     * @throws ServerException Thrown in case something goes wrong with Server.
+     * @throws UserNotFoundException Thrown in case when User is not found or if Usertype is unexpected.
+     */
+    public User loginUser(String username, String password) throws Exception, ServerException, UserNotFoundException {
+        return Server.await(loginUserAsync(username, password));
+    }
+
+    /**
+     * Login a user without blocking the calling thread.
+     * @param username Username of the user.
+     * @param password Password of the user.
+     * @return A future that completes with the User, or exceptionally with the
+     * exceptions {@link #loginUser(String, String)} throws.
+     */
+    public CompletableFuture<User> loginUserAsync(String username, String password) {
+        CompletableFuture<User> lookup = getUserAsync(username); // Speculatively, while logging in.
+        return login(username, password, null)
+                .thenCombine(lookup, (grant, user) -> {
+                    if (user == null) {
+                        throw new CompletionException(new UserNotFoundException("Invalid user type."));
+                    }
+                    user.setSession(new Session(grant, reloginOnExpiry
+                            ? stale -> relogin(username, password, stale)
+                            : grant.refreshToken != null ? this::refresh : null));
+                    return user;
+                });
+    }
+
+    /**
+     * Log users in again when their session cannot be refreshed, that is when
+     * no refresh token was granted or the refresh token is rejected. This is
+     * off by default, as the users logged in while it is enabled keep their
+     * password in memory for as long as they are used.
+     * @param enabled If the users logged in from now on log in again.
+     */
+    public void setReloginOnExpiry(boolean enabled) {
+        this.reloginOnExpiry = enabled;
+    }
+
+    /**
+     * Login without resolving the user.
+     * @param username Username of the user.
+     * @param password Password of the user.
+     * @param previous The grant being replaced, or null.
+     * @return A future that completes with the granted token.
+     */
+    private CompletableFuture<Session.Grant> login(String username, String password, Session.Grant previous) {
+        Map<String, String> loginJson = new HashMap<String, String>();
+        loginJson.put("username", username);
+        loginJson.put("password", password);
+        String json = JsonCodec.GSON.toJson(loginJson, HashMap.class);
+        return server.sendRequestAsync("/api/login", "POST", "", json)
+                .thenApply(response -> Session.Grant.parse(response.getJsonResponse(), previous));
+    }
+
+    /**
+     * Replace a stale token with the refresh token issued with it.
+     * @param stale The grant being replaced.
+     * @return A future that completes with the new grant.
+     */
+    private CompletableFuture<Session.Grant> refresh(Session.Grant stale) {
+        return server.sendRequestAsync("/api/refresh", "POST", stale.refreshToken, "")
+                .thenApply(response -> Session.Grant.parse(response.getJsonResponse(), stale));
+    }
+
+    /**
+     * Replace a stale token: with the refresh token if one was issued, else,
+     * or if the refresh token is rejected too, by logging in again.
+     * @param username Username of the user.
+     * @param password Password of the user.
+     * @param stale The grant being replaced.
+     * @return A future that completes with the new grant.
+     */
+    private CompletableFuture<Session.Grant> relogin(String username, String password, Session.Grant stale) {
+        if (stale.refreshToken == null) {
+            return login(username, password, stale);
+        }
+        return refresh(stale).exceptionallyCompose(error -> login(username, password, null));
+    }
+
+    /**
+     * Stop the background work of this client, such as health checks and
+     * lecture subscriptions.
+     */
+    @Override
+    public void close() {
+        server.stopHealthChecks();
+        synchronized (this) {
+            if (lectureEvents != null) {
+                lectureEvents.close();
+            }
+        }
+    }
+}
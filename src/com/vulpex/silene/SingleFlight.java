@@ -0,0 +1,117 @@
+package com.vulpex.silene;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls made while one of them is in flight: the first
+ * caller makes the call and every other caller shares its result. A shared
+ * list or map is handed out unmodifiable, so one caller cannot change what
+ * the others see.
+ */
+final class SingleFlight {
+    private final ConcurrentHashMap<Key, CompletableFuture<?>> calls = new ConcurrentHashMap<Key, CompletableFuture<?>>();
+
+    /**
+     * Make a call, or join an identical call already in flight.
+     * @param key Identifies the call.
+     * @param call Makes the call.
+     * @param <T> Type of the result.
+     * @return a future that completes with the result of the shared call,
+     * unmodifiable if it is a list or a map. Cancelling it does not cancel the
+     * call for the other callers.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> run(Key key, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> flight = new CompletableFuture<T>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.copy();
+        }
+        try {
+            call.get().whenComplete((result, error) -> {
+                calls.remove(key, flight);
+                if (error == null) {
+                    flight.complete(shared(result));
+                } else {
+                    flight.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight.copy();
+    }
+
+    /**
+     * Make a result safe to hand to several callers.
+     * @param result Result of the call.
+     * @param <T> Type of the result.
+     * @return an unmodifiable view of a list or a map, or the result itself.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T shared(T result) {
+        if (result instanceof List) {
+            return (T) Collections.unmodifiableList((List<?>) result);
+        }
+        if (result instanceof Map) {
+            return (T) Collections.unmodifiableMap((Map<?, ?>) result);
+        }
+        return result;
+    }
+
+    /**
+     * Identifies a request: two requests with the same key get the same answer.
+     */
+    static final class Key {
+        private final String method;
+        private final String api_uri;
+        private final String authorization;
+        private final String input;
+        private final Object decoder;
+        private final int hash;
+
+        /**
+         * @param method HTTP Method of the request.
+         * @param api_uri URI of the endpoint.
+         * @param authorization Authorization token the request is sent with.
+         * @param input Body of the request.
+         * @param decoder Decoder of the response, or null if it is not decoded.
+         */
+        Key(String method, String api_uri, String authorization, String input, Object decoder) {
+            this.method = method;
+            this.api_uri = api_uri;
+            this.authorization = authorization;
+            this.input = input;
+            this.decoder = decoder;
+            this.hash = Objects.hash(method, api_uri, authorization, input, System.identityHashCode(decoder));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && decoder == other.decoder && method.equals(other.method)
+                    && api_uri.equals(other.api_uri) && Objects.equals(authorization, other.authorization)
+                    && Objects.equals(input, other.input);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
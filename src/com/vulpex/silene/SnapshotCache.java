@@ -0,0 +1,408 @@
+package com.vulpex.silene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of the cached profiles, indexed tutors and lecture lists of a
+ * client, saved to a compact binary file so that a new process starts with
+ * warm caches instead of an empty one.
+ *
+ * The file holds every distinct string once, in a table, followed by the
+ * profiles, the tutors of each indexed locality and the lectures of each user,
+ * referring to the strings by their index. Integers are written as varints and
+ * the whole file is checked with a CRC32. Loading maps the file into memory and
+ * decodes it in a single pass.
+ *
+ * Loaded entries may be stale: {@link #revalidate(User)} refreshes them in the
+ * background, and lecture lists are revalidated by a conditional request the
+ * first time their user fetches them.
+ */
+public class SnapshotCache {
+    private static final int MAGIC = 0x534c4e53; // "SLNS"
+    private static final int VERSION = 1;
+    private static final int REVALIDATION_CONCURRENCY = 4;
+    private final SileneClient client;
+    private final Path file;
+    private final Map<String, SavedLectures> lectures = new ConcurrentHashMap<String, SavedLectures>();
+    private volatile List<String> restoredProfiles = new ArrayList<String>();
+    private volatile long savedAtMillis;
+
+    /**
+     * The saved lecture list of a user.
+     */
+    private static final class SavedLectures {
+        final String etag;
+        final String lastModified;
+        final LectureTable lectures;
+
+        SavedLectures(String etag, String lastModified, LectureTable lectures) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.lectures = lectures;
+        }
+    }
+
+    /**
+     * Create a snapshot cache of a client.
+     * @param client The client whose caches are saved and restored.
+     * @param file Path of the snapshot file.
+     */
+    public SnapshotCache(SileneClient client, Path file) {
+        this.client = client;
+        this.file = file;
+    }
+
+    /**
+     * Get when the loaded snapshot was saved.
+     * @return the time the snapshot was saved in milliseconds since the epoch, or 0 if none is loaded.
+     */
+    public long getSavedAtMillis() {
+        return savedAtMillis;
+    }
+
+    /**
+     * Save the cached profiles, the tutor index and the lectures of some users to
+     * the snapshot file. The file is replaced atomically, so a crash while saving
+     * leaves the previous snapshot in place.
+     * @param users Users whose lectures are saved.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void save(Collection<? extends User> users) throws IOException {
+        Output body = new Output();
+        UserCache cache = client.getUserCache();
+        Map<String, UserType> types = cache.getUserTypes();
+        Map<String, Map<String, String>> profiles = cache.getProfiles();
+        body.writeVarint(profiles.size());
+        for (Map.Entry<String, Map<String, String>> profile : profiles.entrySet()) {
+            UserType type = types.get(profile.getKey());
+            body.writeString(profile.getKey());
+            body.writeVarint(type == null ? 0 : type.ordinal() + 1);
+            body.writeVarint(profile.getValue().size());
+            for (Map.Entry<String, String> field : profile.getValue().entrySet()) {
+                body.writeString(field.getKey());
+                body.writeString(field.getValue());
+            }
+        }
+        TutorIndex index = client.getTutorIndex();
+        Map<String, List<Tutor>> tutors = index == null
+                ? new HashMap<String, List<Tutor>>() : index.tutorsByLocality();
+        body.writeVarint(tutors.size());
+        for (Map.Entry<String, List<Tutor>> locality : tutors.entrySet()) {
+            body.writeString(locality.getKey());
+            body.writeVarint(locality.getValue().size());
+            for (Tutor tutor : locality.getValue()) {
+                body.writeString(tutor.getUsername());
+                body.writeString(tutor.getName());
+                body.writeString(tutor.getLocality());
+                body.writeString(tutor.getAllowedWeekdays());
+                body.writeString(tutor.getExpertise());
+            }
+        }
+        body.writeVarint(users.size());
+        for (User user : users) {
+            LectureStore store = user.getLectureStore();
+            String etag, lastModified;
+            LectureTable saved;
+            synchronized (store) { // The validators must be those of the saved table.
+                etag = store.getValidators().getEtag();
+                lastModified = store.getValidators().getLastModified();
+                saved = store.getTable();
+            }
+            body.writeString(user.getUsername());
+            body.writeString(etag);
+            body.writeString(lastModified);
+            body.writeVarint(saved.size());
+            for (int row = 0; row < saved.size(); row++) {
+                LectureState state = saved.stateAt(row);
+                LocalDate date = saved.dateAt(row);
+                body.writeVarint(saved.idAt(row));
+                body.writeString(saved.tutorAt(row));
+                body.writeString(saved.studentAt(row));
+                body.writeVarint(state == null ? 0 : state.ordinal() + 1);
+                body.writeVarlong(date == null ? 0 : date.toEpochDay() + 1);
+            }
+        }
+
+        Output snapshot = new Output();
+        snapshot.writeInt(MAGIC);
+        snapshot.writeInt(VERSION);
+        snapshot.writeLong(System.currentTimeMillis());
+        snapshot.writeVarint(body.strings.size());
+        for (String string : body.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            snapshot.writeVarint(bytes.length);
+            snapshot.write(bytes, 0, bytes.length);
+        }
+        body.writeTo(snapshot);
+        CRC32 crc = new CRC32();
+        crc.update(snapshot.buffer(), 0, snapshot.size());
+        snapshot.writeInt((int) crc.getValue());
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot.buffer(), 0, snapshot.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the snapshot file into the caches of the client: user types and profiles
+     * into its user cache, tutors into its tutor index, and lectures into the users
+     * the client creates from now on.
+     * @return True if a snapshot was loaded, false if there is none or it is corrupt.
+     * @throws IOException If the snapshot file cannot be read.
+     */
+    public boolean load() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try {
+            if (buffer.remaining() < 20 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer checked = buffer.duplicate();
+            checked.position(0).limit(buffer.limit() - 4);
+            crc.update(checked);
+            if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+                return false;
+            }
+            restore(buffer);
+            return true;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return false; // Passed the CRC yet malformed, such as a snapshot of another version.
+        }
+    }
+
+    /**
+     * Decode a snapshot whose header has been read, and seed the caches with it.
+     * @param buffer The snapshot, positioned after the version.
+     */
+    private void restore(ByteBuffer buffer) {
+        long savedAt = buffer.getLong();
+        String[] strings = new String[readVarint(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarint(buffer)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        UserCache cache = client.getUserCache();
+        List<String> profiles = new ArrayList<String>();
+        for (int i = readVarint(buffer); i > 0; i--) {
+            String username = readString(buffer, strings);
+            int type = readVarint(buffer);
+            Map<String, String> profile = new HashMap<String, String>();
+            for (int j = readVarint(buffer); j > 0; j--) {
+                profile.put(readString(buffer, strings), readString(buffer, strings));
+            }
+            if (type > 0) {
+                cache.putUserType(username, UserType.values()[type - 1]);
+            }
+            cache.putProfile(username, profile);
+            profiles.add(username);
+        }
+        Map<String, List<Tutor>> tutors = new LinkedHashMap<String, List<Tutor>>();
+        for (int i = readVarint(buffer); i > 0; i--) {
+            String locality = readString(buffer, strings);
+            List<Tutor> inLocality = new ArrayList<Tutor>();
+            for (int j = readVarint(buffer); j > 0; j--) {
+                String username = readString(buffer, strings);
+                String name = readString(buffer, strings);
+                String tutorLocality = readString(buffer, strings);
+                String allowedWeekdays = readString(buffer, strings);
+                String expertise = readString(buffer, strings);
+                inLocality.add(new Tutor(client, username, name, "", tutorLocality, allowedWeekdays, expertise));
+            }
+            tutors.put(locality, inLocality);
+        }
+        TutorIndex index = client.getTutorIndex();
+        if (index != null) {
+            index.restore(tutors);
+        }
+        lectures.clear();
+        for (int i = readVarint(buffer); i > 0; i--) {
+            String username = readString(buffer, strings);
+            String etag = readString(buffer, strings);
+            String lastModified = readString(buffer, strings);
+            LectureTable.Builder saved = new LectureTable.Builder();
+            for (int j = readVarint(buffer); j > 0; j--) {
+                int lectureId = readVarint(buffer);
+                String tutor = readString(buffer, strings);
+                String student = readString(buffer, strings);
+                int state = readVarint(buffer);
+                long epochDay = readVarlong(buffer);
+                saved.add(lectureId, tutor, student, state == 0 ? null : LectureState.values()[state - 1],
+                        epochDay == 0 ? null : LocalDate.ofEpochDay(epochDay - 1));
+            }
+            lectures.put(username, new SavedLectures(etag, lastModified, saved.build()));
+        }
+        restoredProfiles = profiles;
+        savedAtMillis = savedAt;
+        client.useSnapshot(this);
+    }
+
+    /**
+     * Fill the lecture store of a new user with its saved lectures, if any.
+     * @param user The new user.
+     */
+    void seed(User user) {
+        SavedLectures saved = lectures.get(user.getUsername());
+        if (saved == null) {
+            return;
+        }
+        user.getLectureStore().restore(saved.lectures.copy(), saved.etag, saved.lastModified);
+    }
+
+    /**
+     * Refresh the loaded entries in the background: the profiles are fetched
+     * again, a few at a time, and the tutor index is synced with the server
+     * through the given user. Until then the loaded entries are served. Lecture
+     * lists are revalidated when they are first fetched, with the saved validators.
+     * @param user User used to sync the tutor index, or null to only refresh profiles.
+     * @return A future that completes once every entry was revalidated, or failed to be.
+     */
+    public CompletableFuture<Void> revalidate(User user) {
+        Queue<String> usernames = new ConcurrentLinkedQueue<String>(restoredProfiles);
+        List<CompletableFuture<Void>> work = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < REVALIDATION_CONCURRENCY; i++) {
+            work.add(revalidateProfiles(usernames));
+        }
+        TutorIndex index = client.getTutorIndex();
+        if (index != null && user != null) {
+            Executor background = runnable -> {
+                Thread thread = new Thread(runnable, "silene-snapshot-revalidation");
+                thread.setDaemon(true);
+                thread.start();
+            };
+            work.add(CompletableFuture.runAsync(() -> {
+                try {
+                    index.sync(user);
+                } catch (Exception e) {
+                    // Keep serving the loaded tutors until the next sync succeeds.
+                }
+            }, background));
+        }
+        return CompletableFuture.allOf(work.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Fetch the profiles of a queue of users one after the other.
+     * @param usernames Users left to fetch, shared with the other fetches.
+     * @return A future that completes once the queue is empty.
+     */
+    private CompletableFuture<Void> revalidateProfiles(Queue<String> usernames) {
+        String username = usernames.poll();
+        if (username == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return client.fetchUserProfileAsync(username, Priority.BULK)
+                .handle((profile, error) -> {
+                    if (error != null) {
+                        client.getUserCache().invalidate(username); // Deleted or unreachable, do not serve it stale.
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> revalidateProfiles(usernames));
+    }
+
+    private static String readString(ByteBuffer buffer, String[] strings) {
+        int reference = readVarint(buffer);
+        return reference == 0 ? null : strings[reference - 1];
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        return (int) readVarlong(buffer);
+    }
+
+    private static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    /**
+     * A growable buffer of snapshot bytes, interning the strings it is given.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+        final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeString(String string) {
+            if (string == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer reference = strings.get(string);
+            if (reference == null) {
+                reference = strings.size() + 1;
+                strings.put(string, reference);
+            }
+            writeVarint(reference);
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xffffffffL);
+        }
+
+        void writeVarlong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+}
@@ -4,7 +4,11 @@ import com.google.gson.Gson;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class Student extends User {
 
@@ -12,6 +16,10 @@ public class Student extends User {
         super(username, name, authorisation_token, locality);
     }
 
+    Student(SileneClient client, String username, String name, String authorisation_token, String locality) {
+        super(client, username, name, authorisation_token, locality);
+    }
+
     /**
      * Register a Student to the server, this DOES NOT return the registered user instance.
      * @param username Username to register.
@@ -27,13 +35,16 @@ public class Student extends User {
         userCredentials.put("name", name);
         userCredentials.put("password", password);
         userCredentials.put("locality", locality);
-        Gson gson = new Gson();
-        String jsonInput = gson.toJson(userCredentials);
-        Server.sendRequest("/api/register_student", "PUT", "", jsonInput);
+        String jsonInput = JsonCodec.GSON.toJson(userCredentials);
+        getClient().getServer().sendRequest("/api/register_student", "PUT", "", jsonInput);
+        getClient().getUserCache().invalidate(username);
     }
 
     /**
-     * Request a lecture from the server between this user and tutor.
+     * Request a lecture from the server between this user and tutor. With a
+     * {@link WriteBehindQueue}, this returns once the request is journalled,
+     * and it is sent to the server in the background; a refusal is then only
+     * reported to its {@link WriteConflictListener}.
      * @param tutorUsername Username of the tutor.
      * @param scheduled Scheduled date of the lecture.
      * @throws InvalidUserSessionException When user session has expired.
@@ -46,13 +57,125 @@ public class Student extends User {
     public void requestLecture(String tutorUsername, Date scheduled) throws InvalidUserSessionException, APIAuthorizationException,
             UnsatisfiableCriteriaException, ServerNotInitialisedException,
             ServerException, Exception {
-        Gson gson = new Gson();
+        Server.await(requestLectureAsync(tutorUsername, scheduled));
+    }
+
+    /**
+     * Request a lecture from the server between this user and tutor. Dates the
+     * tutor does not work on, or the server already refused as full, are
+     * rejected locally, without a round trip to the server. A day the server
+     * refuses is marked full, also when the request was queued behind a
+     * {@link WriteBehindQueue} and refused later.
+     * @param tutor The tutor.
+     * @param scheduled Scheduled date of the lecture.
+     * @throws UnsatisfiableCriteriaException When the tutor is not available on that date.
+     * @throws Exception When any unexpected error occurs.
+     */
+    public void requestLecture(Tutor tutor, Date scheduled) throws UnsatisfiableCriteriaException, Exception {
+        Server.await(requestLectureAsync(tutor, scheduled));
+    }
+
+    /**
+     * Request a lecture from the server without blocking the calling thread.
+     * Dates the tutor is known to be unavailable on are rejected locally.
+     * @param tutor The tutor.
+     * @param scheduled Scheduled date of the lecture.
+     * @return A future that completes once the server accepts the request, or
+     * exceptionally with the exceptions {@link #requestLecture(Tutor, Date)} throws.
+     */
+    public CompletableFuture<Void> requestLectureAsync(Tutor tutor, Date scheduled) {
+        if (!tutor.isAvailable(scheduled)) {
+            return CompletableFuture.failedFuture(
+                    new UnsatisfiableCriteriaException("Tutor is not available on the requested date."));
+        }
+        Consumer<Exception> markFull = error -> {
+            if (error instanceof UnsatisfiableCriteriaException) {
+                tutor.markFull(scheduled); // The server refused the day, do not ask again.
+            }
+        };
+        return requestLectureAsync(tutor.getUsername(), scheduled, markFull).whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof Exception) {
+                markFull.accept((Exception) cause);
+            }
+        });
+    }
+
+    /**
+     * Request a lecture from the server without blocking the calling thread.
+     * @param tutorUsername Username of the tutor.
+     * @param scheduled Scheduled date of the lecture.
+     * @return A future that completes once the server accepts the request, or
+     * exceptionally with the exceptions {@link #requestLecture(String, Date)} throws.
+     */
+    public CompletableFuture<Void> requestLectureAsync(String tutorUsername, Date scheduled) {
+        return requestLectureAsync(tutorUsername, scheduled, null);
+    }
+
+    /**
+     * Request a lecture, sent at once or queued.
+     * @param tutorUsername Username of the tutor.
+     * @param scheduled Scheduled date of the lecture.
+     * @param onRefused Told if the server refuses a queued request, or null.
+     * @return A future that completes once the server accepts the request, or it is journalled.
+     */
+    private CompletableFuture<Void> requestLectureAsync(String tutorUsername, Date scheduled,
+                                                        Consumer<Exception> onRefused) {
+        String request = lectureRequest(tutorUsername, scheduled);
+        WriteBehindQueue queue = getWriteBehind();
+        if (queue != null) {
+            return queue.submit(WriteOperation.REQUEST_LECTURE, tutorUsername + '@' + scheduled.getTime(), request,
+                    onRefused);
+        }
+        return authorised((server, token) -> server.sendRequestAsync("/api/request_lecture", "PUT", token,
+                request)).thenApply(response -> null);
+    }
+
+    /**
+     * Rank the tutors of a locality by weighted criteria and keep the best. The
+     * tutors searched are those of the locality of the criteria, or else of the
+     * student, and the history criterion counts the lectures the student has
+     * locally; fetch them first with {@link #getLectureTable()} to count them all.
+     * As every tutor searched is of that locality, the locality criterion scores
+     * them all alike and does not change the ranking here; to prefer a locality
+     * among tutors of several, rank them with
+     * {@link #findBestTutors(List, MatchCriteria, int)}.
+     * @param criteria Criteria to rank the tutors by.
+     * @param k Number of tutors to keep.
+     * @return the k best tutors, best first.
+     * @throws UnsatisfiableCriteriaException If there is no tutor in the locality.
+     * @throws Exception Any unexpected exception.
+     */
+    public List<TutorMatch> findBestTutors(MatchCriteria criteria, int k) throws UnsatisfiableCriteriaException, Exception {
+        return findBestTutors(searchForTutors(criteria.locality != null ? criteria.locality : getLocality(), ""),
+                criteria, k);
+    }
+
+    /**
+     * Rank some tutors by weighted criteria and keep the best. Ties are won by
+     * the tutor listed first.
+     * @param candidates Tutors to rank.
+     * @param criteria Criteria to rank the tutors by.
+     * @param k Number of tutors to keep.
+     * @return the k best tutors, best first.
+     */
+    public List<TutorMatch> findBestTutors(List<Tutor> candidates, MatchCriteria criteria, int k) {
+        return new TutorMatcher(candidates, criteria, getLectureStore().getTable(), k).rank();
+    }
+
+    /**
+     * Build the JSON body of a lecture request.
+     * @param tutorUsername Username of the tutor.
+     * @param scheduled Scheduled date of the lecture.
+     * @return the body as a JSON string.
+     */
+    private static String lectureRequest(String tutorUsername, Date scheduled) {
+        Gson gson = JsonCodec.GSON;
         Map<String, Object> map = new HashMap<String, Object>(); // Since Java does not have a functional
         // Type system...
         map.put("tutor_username", tutorUsername);
         map.put("scheduled", scheduled.getTime());
-        String jsonInput = gson.toJson(map);
-        Server.sendRequest("/api/request_lecture", "PUT", this.authorisation_token, jsonInput);
+        return gson.toJson(map);
     }
 
 }
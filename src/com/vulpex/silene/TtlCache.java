@@ -0,0 +1,122 @@
+package com.vulpex.silene;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe cache. Entries expire after a fixed time to live,
+ * and the least recently used entry is evicted once the cache is full.
+ * @param <K> Type of the keys.
+ * @param <V> Type of the values.
+ */
+final class TtlCache<K, V> {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * A cached value and the time it expires at.
+     * @param <V> Type of the value.
+     */
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Initialise a TtlCache.
+     * @param maxSize Maximum number of entries, 0 disables caching.
+     * @param ttlNanos Time to live of an entry in nanoseconds.
+     */
+    TtlCache(int maxSize, long ttlNanos) {
+        if (maxSize < 0 || ttlNanos < 0) {
+            throw new IllegalArgumentException("Cache size and time to live must not be negative.");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true); // Access order for LRU.
+    }
+
+    /**
+     * Get a cached value.
+     * @param key Key of the value.
+     * @return the value, or null if it is not cached or has expired.
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            entries.remove(key);
+            evictions++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Cache a value, evicting the least recently used entries if the cache is full.
+     * @param key Key of the value.
+     * @param value Value to be cached.
+     */
+    synchronized void put(K key, V value) {
+        if (maxSize == 0) {
+            return;
+        }
+        entries.put(key, new Entry<V>(value, System.nanoTime() + ttlNanos));
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxSize) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove a value from the cache.
+     * @param key Key of the value.
+     */
+    synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove every value from the cache.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the values that have not expired.
+     * @return a copy of the live entries, least recently used first.
+     */
+    synchronized Map<K, V> liveEntries() {
+        Map<K, V> live = new LinkedHashMap<K, V>();
+        long now = System.nanoTime();
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (entry.getValue().expiresAt - now > 0) {
+                live.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        return live;
+    }
+
+    synchronized int size() { return entries.size(); }
+    synchronized long getHits() { return hits; }
+    synchronized long getMisses() { return misses; }
+    synchronized long getEvictions() { return evictions; }
+}
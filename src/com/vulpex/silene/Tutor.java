@@ -1,25 +1,76 @@
 package com.vulpex.silene;
 
-import com.google.gson.Gson;
-
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class Tutor extends User {
     private String allowedWeekdays;
     private String expertise;
+    private final Availability availability;
 
     public Tutor(String username, String name,
                  String authorisation_token, String locality, String allowedWeekdays, String expertise) {
-        super(username, name, authorisation_token, locality);
+        this(null, username, name, authorisation_token, locality, allowedWeekdays, expertise);
+    }
+
+    Tutor(SileneClient client, String username, String name,
+          String authorisation_token, String locality, String allowedWeekdays, String expertise) {
+        super(client, username, name, authorisation_token, locality);
         this.allowedWeekdays = allowedWeekdays;
         this.expertise = expertise;
+        this.availability = new Availability(allowedWeekdays);
     }
 
     public String getExpertise() {
         return expertise;
     }
 
+    public String getAllowedWeekdays() {
+        return allowedWeekdays;
+    }
+
+    Availability getAvailability() {
+        return availability;
+    }
+
+    /**
+     * Check if a lecture can be requested from this tutor on a date, that is if
+     * the date is one of the tutor's weekdays and the server has not refused
+     * a lecture on that day as full.
+     * @param date Date of the lecture.
+     * @return True if the tutor is available on that date.
+     */
+    public boolean isAvailable(java.util.Date date) {
+        return availability.isAvailable(Availability.toLocalDate(date));
+    }
+
+    /**
+     * Get the next days, starting today, this tutor is available on.
+     * @param n Number of days to return.
+     * @return up to n available dates, in order.
+     */
+    public List<java.util.Date> nextAvailableSlots(int n) {
+        List<java.util.Date> slots = new ArrayList<java.util.Date>(n);
+        for (LocalDate day : availability.nextAvailable(LocalDate.now(), n)) {
+            slots.add(Date.valueOf(day));
+        }
+        return slots;
+    }
+
+    /**
+     * Record that this tutor is fully booked on a date, as the server answered.
+     * @param date Date the server refused a lecture on.
+     */
+    void markFull(java.util.Date date) {
+        availability.markFull(Availability.toLocalDate(date));
+    }
+
     /**
      * Register a Tutor to the server, this DOES NOT return the registered user instance.
      * @param username Username to register.
@@ -40,24 +91,66 @@ public class Tutor extends User {
         userCredentials.put("locality", locality);
         userCredentials.put("expertise", expertise);
         userCredentials.put("allowedWeekdays", allowedWeekdays);
-        Gson gson = new Gson();
-        String jsonInput = gson.toJson(userCredentials);
-        Server.sendRequest("/api/register_tutor", "PUT", "", jsonInput);
+        String jsonInput = JsonCodec.GSON.toJson(userCredentials);
+        getClient().getServer().sendRequest("/api/register_tutor", "PUT", "", jsonInput);
+        getClient().getUserCache().invalidate(username);
     }
 
     /**
-     * Confirm a lecture.
+     * Confirm a lecture. With a {@link WriteBehindQueue}, this returns once the
+     * confirmation is journalled, and it is sent to the server in the background.
+     * The lecture shows as confirmed from then on; if the server refuses the
+     * confirmation, it is set back to its previous state before the
+     * {@link WriteConflictListener} is told.
      * @param lecture Lecture to be confirmed.
      * @throws InvalidUserSessionException
      * @throws ServerException
      * @throws Exception
      */
     public void confirmLecture(Lecture lecture) throws InvalidUserSessionException, ServerException, Exception {
+        Server.await(confirmLectureAsync(lecture));
+    }
+
+    /**
+     * Confirm a lecture without blocking the calling thread.
+     * @param lecture Lecture to be confirmed.
+     * @return A future that completes once the lecture is confirmed, or
+     * exceptionally with the exceptions {@link #confirmLecture(Lecture)} throws.
+     */
+    public CompletableFuture<Void> confirmLectureAsync(Lecture lecture) {
+        String confirmation = lectureConfirmation(lecture);
+        WriteBehindQueue queue = getWriteBehind();
+        if (queue == null) {
+            return authorised((server, token) -> server.sendRequestAsync("/api/confirm_lecture", "PATCH", token,
+                    confirmation)).thenRun(() -> {
+                lecture.confirmLecture();
+                getLectureStore().confirm(lecture.getLectureId());
+            });
+        }
+        LectureState previous = lecture.getState();
+        Consumer<Exception> undo = refusal -> {
+            lecture.setState(previous);
+            getLectureStore().update(lecture.getLectureId(), previous);
+        };
+        // Confirmed before it is queued, so a refusal cannot be undone before the confirmation is applied.
+        lecture.confirmLecture();
+        getLectureStore().confirm(lecture.getLectureId());
+        return queue.submit(WriteOperation.CONFIRM_LECTURE, String.valueOf(lecture.getLectureId()), confirmation, undo)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        undo.accept(null); // Not journalled, so not accepted.
+                    }
+                });
+    }
+
+    /**
+     * Build the JSON body of a lecture confirmation.
+     * @param lecture Lecture to be confirmed.
+     * @return the body as a JSON string.
+     */
+    private static String lectureConfirmation(Lecture lecture) {
         Map<String, Integer> argument = new HashMap<String, Integer>();
         argument.put("lecture_id", lecture.getLectureId());
-        Gson gson = new Gson();
-        String jsonInput = gson.toJson(argument);
-        Server.sendRequest("/api/confirm_lecture", "PATCH", this.authorisation_token, jsonInput);
-        lecture.confirmLecture();
+        return JsonCodec.GSON.toJson(argument);
     }
 }
@@ -0,0 +1,15 @@
+package com.vulpex.silene;
+
+/**
+ * Scores how well a tutor fits a student on one aspect, for ranking tutors
+ * with {@link MatchCriteria#custom(TutorCriterion, double)}. Called from
+ * several threads at once.
+ */
+public interface TutorCriterion {
+    /**
+     * Score a tutor.
+     * @param tutor The tutor.
+     * @return the score, from 0 for no fit to 1 for the best fit.
+     */
+    double score(Tutor tutor);
+}
@@ -0,0 +1,303 @@
+package com.vulpex.silene;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in memory index of the tutors in a set of localities. Tutors are kept
+ * in slots, with inverted postings on locality and expertise and a weekday
+ * bitmask per slot, so searches and multi criteria queries are answered
+ * without going to the server.
+ *
+ * The index is kept fresh by syncing it with the server, either by hand or
+ * periodically; a sync only touches the slots of tutors that changed.
+ */
+public class TutorIndex implements AutoCloseable {
+    private final Set<String> localities;
+    private final List<Tutor> slots = new ArrayList<Tutor>();
+    private int[] weekdayMasks = new int[0];
+    private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private final Map<String, Integer> slotByUsername = new HashMap<String, Integer>();
+    private final Map<String, BitSet> byLocality = new HashMap<String, BitSet>();
+    private final Map<String, BitSet> byExpertise = new HashMap<String, BitSet>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<String> covered = ConcurrentHashMap.newKeySet(); // Localities synced or restored.
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Initialise a TutorIndex.
+     * @param localities Localities whose tutors are indexed.
+     */
+    public TutorIndex(Collection<String> localities) {
+        this.localities = new LinkedHashSet<String>();
+        for (String locality : localities) {
+            this.localities.add(normalise(locality));
+        }
+    }
+
+    /**
+     * Normalise a locality or expertise for lookups.
+     * @param term Term to be normalised.
+     * @return the normalised term.
+     */
+    private static String normalise(String term) {
+        return term == null ? "" : term.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Check if searches in a locality can be answered by this index.
+     * @param locality Locality of the search.
+     * @return True if the locality is indexed and its tutors were synced or restored.
+     */
+    public boolean covers(String locality) {
+        return covered.contains(normalise(locality));
+    }
+
+    /**
+     * Find the tutors matching every given criteria.
+     * @param locality Locality of the tutor, empty to match any.
+     * @param expertise Expertise of the tutor, empty to match any.
+     * @param availableOn Days the tutor must all be available on.
+     * @return the matching tutors.
+     */
+    public List<Tutor> query(String locality, String expertise, DayOfWeek... availableOn) {
+        int requiredDays = Availability.weekdayMask(availableOn);
+        lock.readLock().lock();
+        try {
+            BitSet matches = new BitSet(slots.size());
+            matches.set(0, slots.size());
+            for (Integer free : freeSlots) {
+                matches.clear(free);
+            }
+            if (!locality.isEmpty()) {
+                matches.and(byLocality.getOrDefault(normalise(locality), new BitSet()));
+            }
+            if (!expertise.isEmpty()) {
+                matches.and(byExpertise.getOrDefault(normalise(expertise), new BitSet()));
+            }
+            List<Tutor> tutors = new ArrayList<Tutor>(matches.cardinality());
+            for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+                if ((weekdayMasks[slot] & requiredDays) == requiredDays) {
+                    tutors.add(slots.get(slot));
+                }
+            }
+            return tutors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fetch the tutors of every indexed locality and apply the differences to the index.
+     * @param user User the searches are made as.
+     * @return the number of tutors added, changed or removed.
+     * @throws Exception If a search fails, the index is left as it was before that locality.
+     */
+    public int sync(User user) throws Exception {
+        int changes = 0;
+        for (String locality : localities) {
+            List<Tutor> tutors;
+            try {
+                tutors = user.fetchTutors(locality, "");
+            } catch (UnsatisfiableCriteriaException e) { // No tutors in this locality.
+                tutors = new ArrayList<Tutor>();
+            }
+            lock.writeLock().lock();
+            try {
+                changes += apply(locality, tutors);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            covered.add(locality);
+        }
+        return changes;
+    }
+
+    /**
+     * Get the indexed tutors of every locality the index covers.
+     * @return the tutors keyed by normalised locality.
+     */
+    Map<String, List<Tutor>> tutorsByLocality() {
+        lock.readLock().lock();
+        try {
+            Map<String, List<Tutor>> tutors = new LinkedHashMap<String, List<Tutor>>();
+            for (String locality : localities) {
+                if (!covered.contains(locality)) {
+                    continue; // Not known yet, so not known to be empty either.
+                }
+                List<Tutor> inLocality = new ArrayList<Tutor>();
+                BitSet slotsInLocality = byLocality.get(locality);
+                if (slotsInLocality != null) {
+                    for (int slot = slotsInLocality.nextSetBit(0); slot >= 0; slot = slotsInLocality.nextSetBit(slot + 1)) {
+                        inLocality.add(slots.get(slot));
+                    }
+                }
+                tutors.put(locality, inLocality);
+            }
+            return tutors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fill the index with tutors saved earlier, and serve searches from them
+     * until the next sync. Only the indexed localities the saved tutors
+     * include are covered from then on; the others are ignored.
+     * @param saved Saved tutors keyed by locality.
+     * @return the number of tutors added, changed or removed.
+     */
+    int restore(Map<String, List<Tutor>> saved) {
+        int changes = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, List<Tutor>> entry : saved.entrySet()) {
+                String locality = normalise(entry.getKey());
+                if (localities.contains(locality)) {
+                    changes += apply(locality, entry.getValue());
+                    covered.add(locality);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return changes;
+    }
+
+    /**
+     * Apply the current tutors of a locality to the index. Must hold the write lock.
+     * @param locality Normalised locality.
+     * @param tutors Current tutors of the locality.
+     * @return the number of tutors added, changed or removed.
+     */
+    private int apply(String locality, List<Tutor> tutors) {
+        int changes = 0;
+        Set<String> seen = new HashSet<String>();
+        for (Tutor tutor : tutors) {
+            seen.add(tutor.getUsername());
+            Integer slot = slotByUsername.get(tutor.getUsername());
+            if (slot != null && sameListing(slots.get(slot), tutor)) {
+                continue;
+            }
+            if (slot != null) {
+                remove(slot);
+            }
+            add(tutor);
+            changes++;
+        }
+        BitSet inLocality = byLocality.get(locality);
+        if (inLocality != null) {
+            for (int slot = inLocality.nextSetBit(0); slot >= 0; slot = inLocality.nextSetBit(slot + 1)) {
+                if (!seen.contains(slots.get(slot).getUsername())) {
+                    remove(slot);
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static boolean sameListing(Tutor a, Tutor b) {
+        return Objects.equals(a.getName(), b.getName()) && Objects.equals(a.getLocality(), b.getLocality())
+                && Objects.equals(a.getExpertise(), b.getExpertise())
+                && Objects.equals(a.getAllowedWeekdays(), b.getAllowedWeekdays());
+    }
+
+    private void add(Tutor tutor) {
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(tutor);
+            if (slot >= weekdayMasks.length) {
+                int[] grown = new int[Math.max(16, weekdayMasks.length * 2)];
+                System.arraycopy(weekdayMasks, 0, grown, 0, weekdayMasks.length);
+                weekdayMasks = grown;
+            }
+        } else {
+            slot = freeSlots.pop();
+            slots.set(slot, tutor);
+        }
+        weekdayMasks[slot] = tutor.getAvailability().getWeekdayMask();
+        slotByUsername.put(tutor.getUsername(), slot);
+        byLocality.computeIfAbsent(normalise(tutor.getLocality()), k -> new BitSet()).set(slot);
+        byExpertise.computeIfAbsent(normalise(tutor.getExpertise()), k -> new BitSet()).set(slot);
+    }
+
+    private void remove(int slot) {
+        Tutor tutor = slots.get(slot);
+        slotByUsername.remove(tutor.getUsername());
+        byLocality.get(normalise(tutor.getLocality())).clear(slot);
+        byExpertise.get(normalise(tutor.getExpertise())).clear(slot);
+        weekdayMasks[slot] = 0;
+        slots.set(slot, null);
+        freeSlots.push(slot);
+    }
+
+    /**
+     * Sync the index with the server periodically in the background. Failed syncs
+     * are retried on the next period, serving the last synced tutors meanwhile.
+     * @param user User the searches are made as.
+     * @param period Time between two syncs.
+     */
+    public synchronized void startSync(User user, Duration period) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Sync already started.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "silene-tutor-index-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sync(user);
+            } catch (Exception e) {
+                // Keep serving the previous state until the next sync succeeds.
+            }
+        }, 0, period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop syncing the index in the background.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Get the number of tutors in the index.
+     * @return the number of indexed tutors.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotByUsername.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.vulpex.silene;
+
+/**
+ * A tutor ranked by {@link Student#findBestTutors(MatchCriteria, int)}, with its score.
+ */
+public class TutorMatch {
+    private final Tutor tutor;
+    private final double score;
+
+    TutorMatch(Tutor tutor, double score) {
+        this.tutor = tutor;
+        this.score = score;
+    }
+
+    public Tutor getTutor() {
+        return tutor;
+    }
+
+    /**
+     * Get the weighted sum of the scores of the tutor on each criterion.
+     * @return the score.
+     */
+    public double getScore() {
+        return score;
+    }
+}
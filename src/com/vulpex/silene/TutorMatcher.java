@@ -0,0 +1,245 @@
+package com.vulpex.silene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Ranks tutors by weighted criteria. The candidates are split into ranges
+ * scored in parallel on the common fork/join pool: each range fills its part
+ * of one primitive array per criterion, sums the weighted features and keeps
+ * its best tutors in a bounded heap. The heaps are merged as the ranges join,
+ * so the candidates are never sorted as a whole.
+ */
+final class TutorMatcher {
+    private static final int LEAF_SIZE = 512;
+    private final List<Tutor> candidates;
+    private final MatchCriteria criteria;
+    private final int k;
+    private final int[] lectureCounts;
+    private final int maxLectureCount;
+    private final double[] expertise;
+    private final double[] locality;
+    private final double[] weekdays;
+    private final double[] history;
+    private final double[][] custom;
+    private final double[] customWeights;
+    private final int wishedDays;
+
+    /**
+     * Prepare the ranking of some tutors.
+     * @param candidates Tutors to rank.
+     * @param criteria Criteria to rank them by.
+     * @param lectures Lectures of the student, for the history criterion.
+     * @param k Number of tutors to keep.
+     */
+    TutorMatcher(List<Tutor> candidates, MatchCriteria criteria, LectureTable lectures, int k) {
+        this.candidates = candidates instanceof java.util.RandomAccess ? candidates : new ArrayList<Tutor>(candidates);
+        this.criteria = criteria;
+        this.k = k;
+        int n = this.candidates.size();
+        expertise = criteria.expertiseWeight != 0 ? new double[n] : null;
+        locality = criteria.localityWeight != 0 ? new double[n] : null;
+        weekdays = criteria.weekdaysWeight != 0 ? new double[n] : null;
+        history = criteria.historyWeight != 0 ? new double[n] : null;
+        custom = new double[criteria.custom.size()][n];
+        customWeights = new double[criteria.custom.size()];
+        for (int i = 0; i < customWeights.length; i++) {
+            customWeights[i] = criteria.customWeights.get(i);
+        }
+        wishedDays = Integer.bitCount(criteria.weekdayMask);
+        int max = 0;
+        lectureCounts = history != null ? new int[n] : null;
+        if (history != null) {
+            for (int i = 0; i < n; i++) {
+                lectureCounts[i] = lectures.countWithTutor(this.candidates.get(i).getUsername());
+                max = Math.max(max, lectureCounts[i]);
+            }
+        }
+        maxLectureCount = max;
+    }
+
+    /**
+     * Rank the tutors.
+     * @return the k best tutors, best first.
+     */
+    List<TutorMatch> rank() {
+        if (k <= 0 || candidates.isEmpty()) {
+            return new ArrayList<TutorMatch>();
+        }
+        TopK best = candidates.size() <= LEAF_SIZE ? score(0, candidates.size())
+                : ForkJoinPool.commonPool().invoke(new Ranking(0, candidates.size()));
+        return best.toMatches(candidates);
+    }
+
+    /**
+     * Ranks a range of the candidates, splitting it while it is large.
+     */
+    private final class Ranking extends RecursiveTask<TopK> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Ranking(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= LEAF_SIZE) {
+                return score(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Ranking left = new Ranking(from, middle);
+            left.fork();
+            TopK best = new Ranking(middle, to).compute();
+            best.addAll(left.join());
+            return best;
+        }
+    }
+
+    /**
+     * Extract the features of a range of candidates and keep the best of them.
+     * @param from First candidate of the range.
+     * @param to End of the range, exclusive.
+     * @return the best candidates of the range.
+     */
+    private TopK score(int from, int to) {
+        for (int i = from; i < to; i++) {
+            Tutor tutor = candidates.get(i);
+            if (expertise != null) {
+                String of = tutor.getExpertise() == null ? "" : tutor.getExpertise().toLowerCase();
+                expertise[i] = of.equals(criteria.expertise) ? 1 : of.contains(criteria.expertise) ? 0.5 : 0;
+            }
+            if (locality != null) {
+                locality[i] = criteria.locality.equalsIgnoreCase(tutor.getLocality()) ? 1 : 0;
+            }
+            if (weekdays != null) {
+                weekdays[i] = wishedDays == 0 ? 0
+                        : Integer.bitCount(tutor.getAvailability().getWeekdayMask() & criteria.weekdayMask) / (double) wishedDays;
+            }
+            if (history != null) {
+                history[i] = maxLectureCount == 0 ? 0 : lectureCounts[i] / (double) maxLectureCount;
+            }
+            for (int c = 0; c < custom.length; c++) {
+                custom[c][i] = criteria.custom.get(c).score(tutor);
+            }
+        }
+        TopK best = new TopK(k);
+        for (int i = from; i < to; i++) {
+            double score = 0;
+            if (expertise != null) {
+                score += criteria.expertiseWeight * expertise[i];
+            }
+            if (locality != null) {
+                score += criteria.localityWeight * locality[i];
+            }
+            if (weekdays != null) {
+                score += criteria.weekdaysWeight * weekdays[i];
+            }
+            if (history != null) {
+                score += criteria.historyWeight * history[i];
+            }
+            for (int c = 0; c < custom.length; c++) {
+                score += customWeights[c] * custom[c][i];
+            }
+            best.offer(i, score);
+        }
+        return best;
+    }
+
+    /**
+     * The best candidates seen so far, at most k of them, in a min-heap whose
+     * root is the worst kept. Of two candidates with the same score, the one
+     * listed first is the better.
+     */
+    static final class TopK {
+        private final int[] rows;
+        private final double[] scores;
+        private int size;
+
+        TopK(int k) {
+            rows = new int[k];
+            scores = new double[k];
+        }
+
+        private static boolean worse(int row, double score, int thanRow, double thanScore) {
+            return score < thanScore || (score == thanScore && row > thanRow);
+        }
+
+        void offer(int row, double score) {
+            if (size < rows.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!worse(row, score, rows[parent], scores[parent])) {
+                        break;
+                    }
+                    rows[i] = rows[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                rows[i] = row;
+                scores[i] = score;
+            } else if (worse(rows[0], scores[0], row, score)) {
+                siftDown(row, score);
+            }
+        }
+
+        /**
+         * Replace the root with a candidate and restore the heap.
+         */
+        private void siftDown(int row, double score) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && worse(rows[child + 1], scores[child + 1], rows[child], scores[child])) {
+                    child++;
+                }
+                if (!worse(rows[child], scores[child], row, score)) {
+                    break;
+                }
+                rows[i] = rows[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            rows[i] = row;
+            scores[i] = score;
+        }
+
+        void addAll(TopK other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.rows[i], other.scores[i]);
+            }
+        }
+
+        /**
+         * Empty the heap into a list, best first.
+         * @param candidates The candidates the rows refer to.
+         * @return the matches.
+         */
+        List<TutorMatch> toMatches(List<Tutor> candidates) {
+            TutorMatch[] matches = new TutorMatch[size];
+            for (int i = size - 1; i >= 0; i--) {
+                int row = rows[0];
+                double score = scores[0];
+                size--;
+                if (size > 0) {
+                    siftDown(rows[size], scores[size]);
+                }
+                matches[i] = new TutorMatch(candidates.get(row), score);
+            }
+            List<TutorMatch> list = new ArrayList<TutorMatch>(matches.length);
+            for (TutorMatch match : matches) {
+                list.add(match);
+            }
+            return list;
+        }
+    }
+}
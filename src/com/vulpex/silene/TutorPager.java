@@ -0,0 +1,137 @@
+package com.vulpex.silene;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+
+/**
+ * Iterates over the tutors of a paged search. Pages are only requested as
+ * they are consumed, and up to a given number of pages are fetched in the
+ * background while the caller processes the current one.
+ *
+ * The search ends on a page shorter than the page size. A server that does
+ * not page answers every page with the whole result, so the search also ends
+ * on a page longer than the page size, which is taken as the whole result,
+ * and on a page listing the same tutors as the previous one, which is skipped.
+ */
+final class TutorPager implements Iterator<Tutor>, AutoCloseable {
+    private final IntFunction<CompletableFuture<List<Tutor>>> pageFetcher;
+    private final int pageSize;
+    private final int prefetch;
+    private final Deque<CompletableFuture<List<Tutor>>> pending = new ArrayDeque<CompletableFuture<List<Tutor>>>();
+    private Iterator<Tutor> current = Collections.emptyIterator();
+    private int nextPage = 0;
+    private int pagesRead = 0;
+    private List<Tutor> previous = Collections.emptyList();
+    private boolean exhausted = false;
+
+    /**
+     * Initialise a TutorPager.
+     * @param pageFetcher Fetches the page with the given index.
+     * @param pageSize Number of tutors per page.
+     * @param prefetch Number of pages to fetch ahead of the current one.
+     */
+    TutorPager(IntFunction<CompletableFuture<List<Tutor>>> pageFetcher, int pageSize, int prefetch) {
+        if (pageSize < 1 || prefetch < 0) {
+            throw new IllegalArgumentException("Page size must be positive and prefetch must not be negative.");
+        }
+        this.pageFetcher = pageFetcher;
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Request pages until the prefetch window is full.
+     */
+    private void fill() {
+        while (!exhausted && pending.size() < prefetch) {
+            pending.add(pageFetcher.apply(nextPage++));
+        }
+    }
+
+    /**
+     * Check if there are more tutors, fetching the next page if needed. The
+     * server answers a search without results as unsatisfiable, which past the
+     * first page only means the previous page was the last.
+     * @return True if there is another tutor.
+     * @throws CompletionException wrapping the exception the search failed with.
+     */
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (pending.isEmpty()) {
+                if (exhausted) {
+                    return false;
+                }
+                pending.add(pageFetcher.apply(nextPage++));
+            }
+            CompletableFuture<List<Tutor>> page = pending.poll();
+            fill();
+            List<Tutor> tutors;
+            try {
+                tutors = page.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new CompletionException(new ServerException("Interrupted while waiting for the server.", e));
+            } catch (ExecutionException e) {
+                close();
+                if (pagesRead > 0 && e.getCause() instanceof UnsatisfiableCriteriaException) {
+                    return false; // The previous page was full and the last one.
+                }
+                throw new CompletionException(e.getCause());
+            }
+            pagesRead++;
+            if (pagesRead > 1 && sameTutors(tutors, previous)) { // The server ignores paging.
+                close();
+                return false;
+            }
+            if (tutors.size() != pageSize) { // Last page, or the whole result; drop the ones fetched past it.
+                close();
+            }
+            previous = tutors;
+            current = tutors.iterator();
+        }
+        return true;
+    }
+
+    private static boolean sameTutors(List<Tutor> page, List<Tutor> previous) {
+        if (page.size() != previous.size()) {
+            return false;
+        }
+        for (int i = 0; i < page.size(); i++) {
+            if (!Objects.equals(page.get(i).getUsername(), previous.get(i).getUsername())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tutor next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stop fetching pages, cancelling the ones still in flight, which aborts their requests.
+     */
+    @Override
+    public void close() {
+        exhausted = true;
+        for (CompletableFuture<List<Tutor>> page : pending) {
+            page.cancel(true);
+        }
+        pending.clear();
+    }
+}
@@ -1,13 +1,18 @@
 package com.vulpex.silene;
 
 
-import com.google.gson.Gson;
-
-import java.sql.Date;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 enum UserType {
     STUDENT,
@@ -32,35 +37,81 @@ class InvalidFilterException extends Exception {
 public abstract class User {
     private String username;
     private String name;
-    protected String authorisation_token;
     private String locality;
+    private final LectureStore lectureStore = new LectureStore();
+    private final SileneClient client;
+    private volatile Session session;
+    private volatile WriteBehindQueue writeBehind;
 
     public User(String username, String name, String authorisation_token, String locality) {
+        this(null, username, name, authorisation_token, locality);
+    }
+
+    User(SileneClient client, String username, String name, String authorisation_token, String locality) {
+        this.client = client;
         this.username = username;
         this.name = name;
-        this.authorisation_token = authorisation_token;
+        this.session = new Session(authorisation_token);
         this.locality = locality;
     }
 
     /**
-     * Get the lectures of the user.
+     * Get the lectures of the user. The list is only downloaded again when it
+     * changed on the server, and changes are merged into the lectures returned
+     * by earlier calls.
      * @return A list of lectures.
      * @throws ServerNotInitialisedException In case server is not initialised.
      */
     public List<Lecture> getLecturesForUser() throws ServerNotInitialisedException, InvalidUserSessionException, Exception {
-        SileneResponse sileneResponse = Server.sendRequest("/api/list_lectures", "GET",
-                this.authorisation_token, "");
-        Gson gson = new Gson();
-        List<Lecture> lectures = new LinkedList<Lecture>();
-        List<Map<String, Object>> lectureSpecs = gson.fromJson(sileneResponse.getJsonResponse(), List.class);
-        for (Map<String, Object> lectureSpec : lectureSpecs) {
-            Lecture lecture = new Lecture((int) lectureSpec.get("obj_id"), (String) lectureSpec.get("tutor"),
-                    (String) lectureSpec.get("student"),
-                    LectureState.valueOf(lectureSpec.get("state").toString().toUpperCase()),
-                    Date.valueOf((String) lectureSpec.get("time")));
-            lectures.add(lecture);
-        }
-        return lectures;
+        return Server.await(getLecturesForUserAsync());
+    }
+
+    /**
+     * Get the lectures of the user without blocking the calling thread.
+     * @return A future that completes with the list of lectures.
+     */
+    public CompletableFuture<List<Lecture>> getLecturesForUserAsync() {
+        return getLectureTableAsync().thenApply(table -> lectureStore.lectures());
+    }
+
+    /**
+     * Get the lectures of the user as a table that can be queried by date,
+     * state, tutor and student. The list is only downloaded again when it
+     * changed on the server.
+     * @return The table of lectures.
+     * @throws ServerNotInitialisedException In case server is not initialised.
+     */
+    public LectureTable getLectureTable() throws ServerNotInitialisedException, InvalidUserSessionException, Exception {
+        return Server.await(getLectureTableAsync());
+    }
+
+    /**
+     * Get the lectures of the user as a table without blocking the calling thread.
+     * @return A future that completes with the table of lectures.
+     */
+    public CompletableFuture<LectureTable> getLectureTableAsync() {
+        return authorised((server, token) -> server.sendConditionalRequestAsync("/api/list_lectures", token,
+                lectureStore.getValidators(), JsonCodec.LECTURE_TABLE))
+                .thenApply(response -> response.isModified()
+                        ? lectureStore.merge(response.getBody(), response.getHeaders()) : lectureStore.getTable());
+    }
+
+    /**
+     * Subscribe to changes of the lectures of the user, pushed by the server
+     * instead of polled for. Changes are applied to the lectures returned by
+     * {@link #getLecturesForUser()} before the listener is told about them.
+     * The users of a client share one event stream, which reconnects by itself
+     * and resumes after the last event received.
+     * @param listener Told about each change.
+     * @return the subscription, to close once changes are no longer needed.
+     * @throws ServerNotInitialisedException If the user is not bound and setUpServer is not called prior.
+     */
+    public LectureSubscription subscribeLectures(LectureListener listener) throws ServerNotInitialisedException {
+        return getClient().getLectureEvents().subscribe(this, listener);
+    }
+
+    LectureStore getLectureStore() {
+        return lectureStore;
     }
 
     /**
@@ -77,7 +128,111 @@ public abstract class User {
         if (locality.isEmpty() && expertise.isEmpty()) {
             throw new InvalidFilterException("At least one filter must be provided.");
         }
-        Map<String, String> filter = new HashMap<String, String>();
+        TutorIndex index = getClient().getTutorIndex();
+        if (index != null && index.covers(locality)) {
+            List<Tutor> tutors = index.query(locality, expertise);
+            if (tutors.isEmpty()) {
+                throw new UnsatisfiableCriteriaException("Criteria requested not satisfiable.");
+            }
+            return tutors;
+        }
+        return fetchTutors(locality, expertise);
+    }
+
+    /**
+     * Search for tutors on the server, bypassing the tutor index.
+     * @param locality Locality of the search.
+     * @param expertise Expertise of the tutor.
+     * @return The list of tutors.
+     * @throws Exception Any unexpected exception.
+     */
+    List<Tutor> fetchTutors(String locality, String expertise) throws Exception {
+        return Server.await(findTutorsAsync(tutorFilter(locality, expertise)));
+    }
+
+    /**
+     * Send a tutor search to the server.
+     * @param filter The filter as a JSON string.
+     * @return A future that completes with the tutors, bound to the client of this user.
+     */
+    private CompletableFuture<List<Tutor>> findTutorsAsync(String filter) {
+        SileneClient client;
+        try {
+            client = getClient();
+        } catch (ServerNotInitialisedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return authorised((server, token) -> server.sendRequestAsync("/api/find_tutors", "POST", token,
+                filter, client.getTutorDecoder()));
+    }
+
+    /**
+     * Search for tutors given filters without blocking the calling thread.
+     * @param locality Locality of the search.
+     * @param expertise Expertise of the tutor.
+     * @return A future that completes with the list of tutors.
+     */
+    public CompletableFuture<List<Tutor>> searchForTutorsAsync(String locality, String expertise) {
+        if (locality.isEmpty() && expertise.isEmpty()) {
+            return CompletableFuture.failedFuture(
+                    new InvalidFilterException("At least one filter must be provided."));
+        }
+        SileneClient client;
+        try {
+            client = getClient();
+        } catch (ServerNotInitialisedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        TutorIndex index = client.getTutorIndex();
+        if (index != null && index.covers(locality)) {
+            List<Tutor> tutors = index.query(locality, expertise);
+            return tutors.isEmpty()
+                    ? CompletableFuture.failedFuture(new UnsatisfiableCriteriaException("Criteria requested not satisfiable."))
+                    : CompletableFuture.completedFuture(tutors);
+        }
+        return findTutorsAsync(tutorFilter(locality, expertise));
+    }
+
+    /**
+     * Lazily search for tutors given filters, one page at a time. Only the pages
+     * actually consumed are fetched and decoded, and the following pages are
+     * fetched in the background while the current one is processed. Close the
+     * stream to cancel pages still in flight, aborting their requests, when it
+     * is not fully consumed. Pages are requested with the page and page_size
+     * filter fields; a server without them answers every page with the whole
+     * result, which is then streamed once.
+     * A failed page surfaces as a CompletionException wrapping the exception
+     * {@link #searchForTutors(String, String)} would throw.
+     * @param locality Locality of the search.
+     * @param expertise Expertise of the tutor.
+     * @param pageSize Number of tutors requested per page.
+     * @param prefetch Number of pages to fetch ahead of the one being consumed.
+     * @return A lazily evaluated stream of tutors.
+     * @throws InvalidFilterException If no filter is provided.
+     */
+    public Stream<Tutor> streamTutors(String locality, String expertise, int pageSize, int prefetch)
+            throws InvalidFilterException {
+        if (locality.isEmpty() && expertise.isEmpty()) {
+            throw new InvalidFilterException("At least one filter must be provided.");
+        }
+        TutorPager pager = new TutorPager(page -> {
+            Map<String, Object> filter = tutorFilterMap(locality, expertise);
+            filter.put("page", page);
+            filter.put("page_size", pageSize);
+            return findTutorsAsync(JsonCodec.GSON.toJson(filter));
+        }, pageSize, prefetch);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pager,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(pager::close);
+    }
+
+    /**
+     * Build the filter of a tutor search.
+     * @param locality Locality of the search, may be empty.
+     * @param expertise Expertise of the tutor, may be empty.
+     * @return the filter as a map.
+     */
+    private static Map<String, Object> tutorFilterMap(String locality, String expertise) {
+        Map<String, Object> filter = new HashMap<String, Object>();
         if (!locality.isEmpty()) {
             filter.put("locality", locality);
         }
@@ -85,36 +240,17 @@ public abstract class User {
         if (!expertise.isEmpty()) {
             filter.put("expertise", expertise);
         }
-        Gson gson = new Gson();
-        String jsonInput = gson.toJson(filter);
-        SileneResponse response = Server.sendRequest("/api/find_tutors", "POST",
-                this.authorisation_token, jsonInput);
-
-        HashMap kvPairs = gson.fromJson(response.getJsonResponse(), HashMap.class);
-        List<Map<String, String>> tutorCredentials = (List<Map<String, String>>) kvPairs.get("response");
-        List<Tutor> tutors = new LinkedList<Tutor>();
-        for (Map<String, String> credentials : tutorCredentials) {
-            tutors.add(
-                    new Tutor(credentials.get("username"), credentials.get("name"), null, credentials.get("locality"),
-                            credentials.get("allowed_weekdays"), credentials.get("expertise"))
-            );
-        }
-        return tutors;
+        return filter;
     }
 
     /**
-     * Get the type of the user given its login token.
-     * @param username Username of the user.
-     * @return The user type.
-     * @throws Exception Any unexpected exception due to server.
+     * Build the JSON filter of a tutor search.
+     * @param locality Locality of the search, may be empty.
+     * @param expertise Expertise of the tutor, may be empty.
+     * @return the filter as a JSON string.
      */
-    private static UserType getUserType(String username) throws Exception {
-        Gson gson = new Gson();
-        Map<String, String> map = new HashMap<String, String>();
-        map.put("username", username);
-        SileneResponse response = Server.sendRequest("/api/get_user_type", "POST",
-                "", gson.toJson(map));
-        return UserType.valueOf(response.getJsonResponse().toUpperCase());
+    private static String tutorFilter(String locality, String expertise) {
+        return JsonCodec.GSON.toJson(tutorFilterMap(locality, expertise));
     }
 
     /**
@@ -122,59 +258,56 @@ public abstract class User {
      * @param username Username of the user.
      * @return The user credentials in a map.
      * @throws Exception Any unexpected exception.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     * @see SileneClient#getUserProfile(String)
      */
     public static Map<String, String> getUserProfile(String username) throws Exception {
-        Gson gson = new Gson();
-        Map<String, String> argumentMap = new HashMap<String, String>();
-        argumentMap.put("username", username);
-        SileneResponse response = Server.sendRequest("/api/get_user_profile", "POST",
-                "", gson.toJson(argumentMap));
-        HashMap<String, String> userCredentials = (HashMap) gson.fromJson(response.getJsonResponse(), HashMap.class);
-        return userCredentials;
+        return SileneClient.getDefault().getUserProfile(username);
     }
 
     /**
-     * Create a student object.
-     * @param username Username of the user..
-     * @return the student object.
-     * @throws Exception Any unexpected exception.
+     * Get user credentials from server without blocking the calling thread.
+     * @param username Username of the user.
+     * @return A future that completes with the user credentials in a map.
+     * @see SileneClient#getUserProfileAsync(String)
      */
-    private static Student createStudentFrom(String username) throws Exception {
-        Map<String, String> userCredentials = getUserProfile(username);
-        return new Student(userCredentials.get("username"), userCredentials.get("name"),
-                "", userCredentials.get("locality"));
+    public static CompletableFuture<Map<String, String>> getUserProfileAsync(String username) {
+        return withDefaultClient(client -> client.getUserProfileAsync(username));
     }
 
     /**
-     * Create a Tutor object given auth token.
+     * Given a username, return the user.
      * @param username Username of the user.
-     * @return the created Tutor object.
-     * @throws Exception Any unexpected exception.
+     * @return the User with this username if it exists.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     * @see SileneClient#getUser(String)
      */
-    private static Tutor createTutorFrom(String username) throws Exception {
-        Map<String, String> userCredentials = getUserProfile(username);
-        return new Tutor(userCredentials.get("username"), userCredentials.get("name"),
-                "", userCredentials.get("locality"),
-                userCredentials.get("allowed_weekdays"), userCredentials.get("expertise"));
+    public static User getUser(String username) throws Exception {
+        return SileneClient.getDefault().getUser(username);
     }
 
     /**
-     * Given a username, return the user.
+     * Given a username, return the user without blocking the calling thread.
      * @param username Username of the user.
-     * @return the User with this username if it exists.
+     * @return A future that completes with the User with this username, or null if it cannot be found.
+     * @see SileneClient#getUserAsync(String)
      */
-    public static User getUser(String username) throws Exception {
-        try {
-            switch (getUserType(username)) {
-                case STUDENT:
-                    return createStudentFrom(username);
-                case TUTOR:
-                    return createTutorFrom(username);
-            }
-            return null;
-        } catch (Exception e) {
-            return null;
-        }
+    public static CompletableFuture<User> getUserAsync(String username) {
+        return withDefaultClient(client -> client.getUserAsync(username));
+    }
+
+    /**
+     * Given many usernames, return the users.
+     * @param usernames Usernames of the users.
+     * @param maxConcurrency Maximum number of users resolved concurrently.
+     * @return the resolved users, and the reason resolving each of the others failed.
+     * @throws InterruptedException If interrupted while waiting for the users.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     * @see SileneClient#getUsers(Collection, int)
+     */
+    public static BulkUserResult getUsers(Collection<String> usernames, int maxConcurrency)
+            throws InterruptedException, ServerNotInitialisedException {
+        return SileneClient.getDefault().getUsers(usernames, maxConcurrency);
     }
 
     /**
@@ -185,22 +318,153 @@ public abstract class User {
      * @throws Exception Any unexpected exception.
      * @throws ServerException Thrown in case something goes wrong with Server.
      * @throws UserNotFoundException Thrown in case when User is not found or if Usertype is unexpected.
+     * @see SileneClient#loginUser(String, String)
      */
     public static User loginUser(String username, String password) throws Exception, ServerException, UserNotFoundException {
-        Map<String, String> loginJson = new HashMap<String, String>();
-        loginJson.put("username", username);
-        loginJson.put("password", password);
-        Gson gson = new Gson();
-        String json = gson.toJson(loginJson, HashMap.class);
-        SileneResponse response = Server.sendRequest("/api/login",
-                "POST", "", json);
-        HashMap<String, String> authJson = gson.fromJson(response.getJsonResponse(), HashMap.class);
-        String access_token = authJson.get("access_token");
-        User user;
-        if ((user = getUser(username)) != null) {
-            return user;
-        } else {
-            throw new UserNotFoundException("Invalid user type.");
+        return SileneClient.getDefault().loginUser(username, password);
+    }
+
+    /**
+     * Login a user without blocking the calling thread.
+     * @param username Username of the user.
+     * @param password Password of the user.
+     * @return A future that completes with the User.
+     * @see SileneClient#loginUserAsync(String, String)
+     */
+    public static CompletableFuture<User> loginUserAsync(String username, String password) {
+        return withDefaultClient(client -> client.loginUserAsync(username, password));
+    }
+
+    /**
+     * Log users of the default client in again when their session cannot be
+     * refreshed. Users logged in while it is enabled keep their password in memory.
+     * @param enabled If the users logged in from now on log in again.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     * @see SileneClient#setReloginOnExpiry(boolean)
+     */
+    public static void setReloginOnExpiry(boolean enabled) throws ServerNotInitialisedException {
+        SileneClient.getDefault().setReloginOnExpiry(enabled);
+    }
+
+    /**
+     * Cache user types and profiles in the default client. Users are not cached
+     * by default; with a cache, a profile may be served up to its time to live
+     * after it changed.
+     * @param cache The new cache, a cache of size 0 disables caching.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setUserCache(UserCache cache) throws ServerNotInitialisedException {
+        SileneClient.getDefault().setUserCache(cache);
+    }
+
+    /**
+     * Get the cache of user types and profiles of the default client.
+     * @return the user cache.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static UserCache getUserCache() throws ServerNotInitialisedException {
+        return SileneClient.getDefault().getUserCache();
+    }
+
+    /**
+     * Serve tutor searches of the default client in the indexed localities from a local index.
+     * @param index The tutor index, or null to always search on the server.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static void setTutorIndex(TutorIndex index) throws ServerNotInitialisedException {
+        SileneClient.getDefault().setTutorIndex(index);
+    }
+
+    /**
+     * Get the local tutor index of the default client.
+     * @return the tutor index, or null if none is set.
+     * @throws ServerNotInitialisedException If setUpServer is not called prior.
+     */
+    public static TutorIndex getTutorIndex() throws ServerNotInitialisedException {
+        return SileneClient.getDefault().getTutorIndex();
+    }
+
+    /**
+     * Get the client this user is bound to.
+     * @return the client that created this user, or the default client.
+     * @throws ServerNotInitialisedException If the user is not bound and setUpServer is not called prior.
+     */
+    SileneClient getClient() throws ServerNotInitialisedException {
+        return client != null ? client : SileneClient.getDefault();
+    }
+
+    /**
+     * Keep the session of a logged in user, so its token is refreshed as needed.
+     * @param session The session.
+     */
+    void setSession(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Route the lecture writes of this user through a write-behind queue.
+     * @param queue The queue.
+     * @return false if the user already has a queue.
+     */
+    synchronized boolean attachWriteBehind(WriteBehindQueue queue) {
+        if (writeBehind != null) {
+            return false;
+        }
+        writeBehind = queue;
+        return true;
+    }
+
+    synchronized void detachWriteBehind(WriteBehindQueue queue) {
+        if (writeBehind == queue) {
+            writeBehind = null;
+        }
+    }
+
+    /**
+     * Get the write-behind queue of this user.
+     * @return the queue, or null if writes are sent directly.
+     */
+    WriteBehindQueue getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Send a request with the access token of this user. If the server rejects
+     * the token as an invalid session, the token is refreshed and the request
+     * is sent once more.
+     * @param call Sends the request to a server with a token.
+     * @param <T> Type of the result.
+     * @return the future of the call, or a failed future if there is no server.
+     * Cancelling it cancels the request in flight, but not a token refresh other calls may share.
+     */
+    <T> CompletableFuture<T> authorised(BiFunction<Server, String, CompletableFuture<T>> call) {
+        Server server;
+        try {
+            server = getClient().getServer();
+        } catch (ServerNotInitialisedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Session session = this.session;
+        return CancellableCall.start(request -> session.token().thenCompose(token ->
+                request.step(call.apply(server, token)).exceptionallyCompose(error -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (!(cause instanceof InvalidUserSessionException)) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    return session.refresh(token).thenCompose(fresh -> request.step(call.apply(server, fresh)));
+                })));
+    }
+
+    /**
+     * Start an asynchronous call against the default client.
+     * @param call The call to start.
+     * @return the future of the call, or a failed future if there is no default client.
+     */
+    private static <T> CompletableFuture<T> withDefaultClient(Function<SileneClient, CompletableFuture<T>> call) {
+        try {
+            return call.apply(SileneClient.getDefault());
+        } catch (ServerNotInitialisedException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
@@ -0,0 +1,76 @@
+package com.vulpex.silene;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the user types and profiles fetched from the server, keyed by
+ * username, so that resolving the same user repeatedly does not go over
+ * the network each time. Safe to use from many threads.
+ */
+public class UserCache {
+    private final TtlCache<String, UserType> userTypes;
+    private final TtlCache<String, Map<String, String>> profiles;
+
+    /**
+     * Initialise a UserCache.
+     * @param maxSize Maximum number of users kept, 0 disables caching.
+     * @param ttl How long a cached user is considered fresh.
+     */
+    public UserCache(int maxSize, Duration ttl) {
+        this.userTypes = new TtlCache<String, UserType>(maxSize, ttl.toNanos());
+        this.profiles = new TtlCache<String, Map<String, String>>(maxSize, ttl.toNanos());
+    }
+
+    UserType getUserType(String username) {
+        return userTypes.get(username);
+    }
+
+    void putUserType(String username, UserType userType) {
+        userTypes.put(username, userType);
+    }
+
+    /**
+     * Get a cached profile.
+     * @param username Username of the user.
+     * @return a copy of the cached profile, or null if it is not cached.
+     */
+    Map<String, String> getProfile(String username) {
+        Map<String, String> profile = profiles.get(username);
+        return profile == null ? null : new HashMap<String, String>(profile);
+    }
+
+    void putProfile(String username, Map<String, String> profile) {
+        profiles.put(username, new HashMap<String, String>(profile));
+    }
+
+    Map<String, UserType> getUserTypes() {
+        return userTypes.liveEntries();
+    }
+
+    Map<String, Map<String, String>> getProfiles() {
+        return profiles.liveEntries();
+    }
+
+    /**
+     * Forget everything cached about a user, for instance after it is registered.
+     * @param username Username of the user.
+     */
+    public void invalidate(String username) {
+        userTypes.invalidate(username);
+        profiles.invalidate(username);
+    }
+
+    /**
+     * Forget every cached user.
+     */
+    public void clear() {
+        userTypes.clear();
+        profiles.clear();
+    }
+
+    public long getHits() { return userTypes.getHits() + profiles.getHits(); }
+    public long getMisses() { return userTypes.getMisses() + profiles.getMisses(); }
+    public long getEvictions() { return userTypes.getEvictions() + profiles.getEvictions(); }
+}
@@ -0,0 +1,229 @@
+package com.vulpex.silene;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Queues the lecture requests and confirmations of a user behind a durable
+ * local journal. Once a user has a queue, requestLecture and confirmLecture
+ * return as soon as the write is journalled, and a background worker sends
+ * the writes to the server. Writes to the same lecture are sent in order,
+ * one at a time; writes to different lectures are sent concurrently.
+ *
+ * Writes that fail on the way, on a connection failure, a 5xx answer or
+ * while the client holds requests back, stay queued and are sent again on
+ * the next flush. Any other failure, such as a 4xx answer or a malformed
+ * response, is permanent: the write is reported to the
+ * {@link WriteConflictListener} and dropped. Writes still queued when the process stops are sent again when a
+ * queue is opened on the same journal, so the server may see a write twice.
+ */
+public class WriteBehindQueue implements AutoCloseable {
+    private static final int MAX_IN_FLIGHT = 16;
+    private final User user;
+    private final LectureJournal journal;
+    private final WriteConflictListener listener;
+    private final TreeMap<Long, PendingWrite> pending = new TreeMap<Long, PendingWrite>();
+    private final Set<String> busyKeys = new HashSet<String>();
+    private final Map<Long, Consumer<Exception>> undos = new HashMap<Long, Consumer<Exception>>();
+    private final ScheduledExecutorService worker;
+    private long nextSequence;
+    private int appending; // Writes submitted whose append is not durable yet.
+
+    private WriteBehindQueue(User user, LectureJournal journal, Duration flushInterval,
+                             WriteConflictListener listener) {
+        this.user = user;
+        this.journal = journal;
+        this.listener = listener;
+        this.nextSequence = journal.getLastSequence() + 1;
+        for (PendingWrite write : journal.getPending()) {
+            pending.put(write.getSequence(), write);
+        }
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "silene-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.worker.scheduleWithFixedDelay(this::drain, 0, flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the lecture writes of a user behind a journal, replaying the
+     * writes left in the journal by a previous run.
+     * @param user The user whose writes are queued. It must be the same user
+     * that journalled the writes left in the journal.
+     * @param journalFile Path of the journal, created if missing.
+     * @param flushInterval Time between two attempts at sending queued writes.
+     * @param listener Told about the writes the server refuses.
+     * @return the queue.
+     * @throws IOException If the journal cannot be opened.
+     * @throws IllegalStateException If the user already has a queue.
+     */
+    public static WriteBehindQueue open(User user, Path journalFile, Duration flushInterval,
+                                        WriteConflictListener listener) throws IOException {
+        LectureJournal journal = new LectureJournal(journalFile);
+        WriteBehindQueue queue = new WriteBehindQueue(user, journal, flushInterval, listener);
+        if (!user.attachWriteBehind(queue)) {
+            queue.worker.shutdownNow();
+            journal.close();
+            throw new IllegalStateException("User already has a write-behind queue.");
+        }
+        return queue;
+    }
+
+    /**
+     * Journal a write and queue it for the server.
+     * @param operation The operation.
+     * @param key Writes with the same key are sent in order.
+     * @param body JSON body of the request.
+     * @param undo Undoes the local effects of the write if the server refuses
+     * it, before the listener is told, or null. It is not kept in the journal,
+     * so it is not run for writes replayed by a later queue.
+     * @return a future that completes once the write is durable. The write is
+     * only sent to the server from then on.
+     */
+    CompletableFuture<Void> submit(WriteOperation operation, String key, String body, Consumer<Exception> undo) {
+        PendingWrite write;
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            write = new PendingWrite(nextSequence++, operation, key, body);
+            written = journal.append(write);
+            appending++;
+        }
+        return written.whenComplete((ignored, error) -> {
+            synchronized (this) {
+                appending--;
+                if (error == null) {
+                    pending.put(write.getSequence(), write);
+                    if (undo != null) {
+                        undos.put(write.getSequence(), undo);
+                    }
+                }
+            }
+        }).thenRun(() -> {
+            try {
+                worker.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile: the write is sent once a queue is opened on the journal again.
+            }
+        });
+    }
+
+    /**
+     * Get the number of writes not yet applied by the server.
+     * @return the number of queued writes.
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Send the queued writes now rather than at the next flush.
+     */
+    public void flush() {
+        worker.execute(this::drain);
+    }
+
+    /**
+     * Send the first queued write of each lecture that has no write in flight.
+     */
+    private void drain() {
+        List<PendingWrite> toSend = new ArrayList<PendingWrite>();
+        synchronized (this) {
+            Set<String> blocked = new HashSet<String>(busyKeys);
+            for (PendingWrite write : pending.values()) {
+                if (busyKeys.size() + toSend.size() >= MAX_IN_FLIGHT) {
+                    break;
+                }
+                if (blocked.add(write.getKey())) {
+                    toSend.add(write);
+                }
+            }
+            for (PendingWrite write : toSend) {
+                busyKeys.add(write.getKey());
+            }
+        }
+        for (PendingWrite write : toSend) {
+            send(write);
+        }
+    }
+
+    private void send(PendingWrite write) {
+        WriteOperation operation = write.getOperation();
+        user.authorised((server, token) -> server.sendRequestAsync(operation.api_uri, operation.method, token,
+                write.getBody())).whenComplete((response, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof ServerUnavailableException || cause instanceof RequestRejectedException
+                    || cause instanceof ServerNotInitialisedException) {
+                synchronized (this) {
+                    busyKeys.remove(write.getKey()); // Sent again on the next flush.
+                }
+                return;
+            }
+            if (cause != null) {
+                Exception refusal = cause instanceof Exception ? (Exception) cause
+                        : new ServerException("An unexpected exception occured.", cause);
+                Consumer<Exception> undo;
+                synchronized (this) {
+                    undo = undos.remove(write.getSequence());
+                }
+                try {
+                    if (undo != null) {
+                        undo.accept(refusal);
+                    }
+                } catch (RuntimeException e) {
+                    // The listener is told all the same.
+                }
+                try {
+                    listener.onConflict(write, refusal);
+                } catch (RuntimeException e) {
+                    // A failing listener must not stall the queue.
+                }
+            }
+            completed(write);
+        });
+    }
+
+    private void completed(PendingWrite write) {
+        boolean more;
+        synchronized (this) {
+            pending.remove(write.getSequence());
+            undos.remove(write.getSequence());
+            busyKeys.remove(write.getKey());
+            journal.complete(write.getSequence());
+            if (pending.isEmpty() && appending == 0) { // Every write appended so far is completed.
+                journal.compact();
+            }
+            more = !pending.isEmpty();
+        }
+        if (more && !worker.isShutdown()) {
+            worker.execute(this::drain); // The next write of the lecture need not wait for the next flush.
+        }
+    }
+
+    /**
+     * Stop sending writes and close the journal. Writes still queued are
+     * sent when a queue is opened on the journal again.
+     * @throws IOException If the journal cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        worker.shutdownNow();
+        user.detachWriteBehind(this);
+        journal.close(); // Not under the lock, which the writes made durable meanwhile take.
+    }
+}
@@ -0,0 +1,16 @@
+package com.vulpex.silene;
+
+/**
+ * Told about queued writes the server refused, such as a lecture request
+ * answered 412 because the tutor is no longer available, or that failed in a
+ * way sending them again would not fix. These writes are dropped from the
+ * queue once reported.
+ */
+public interface WriteConflictListener {
+    /**
+     * Called on a background thread when the server refuses a write.
+     * @param write The refused write.
+     * @param error The exception the server's answer maps to, such as UnsatisfiableCriteriaException.
+     */
+    void onConflict(PendingWrite write, Exception error);
+}
@@ -0,0 +1,17 @@
+package com.vulpex.silene;
+
+/**
+ * Writes that can be queued behind a {@link WriteBehindQueue}.
+ */
+public enum WriteOperation {
+    REQUEST_LECTURE("PUT", "/api/request_lecture"),
+    CONFIRM_LECTURE("PATCH", "/api/confirm_lecture");
+
+    final String method;
+    final String api_uri;
+
+    WriteOperation(String method, String api_uri) {
+        this.method = method;
+        this.api_uri = api_uri;
+    }
+}